@@ -0,0 +1,69 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore;
+
+import com.jxon.juscore.mjcore.nodes.Branch;
+import com.jxon.juscore.mjcore.nodes.Node;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+// Resolves the model parameters of the benchmarks against models.xml
+public final class BenchmarkModels {
+
+    private BenchmarkModels() {} // Prevent instantiation
+
+    // label is a model name, standing for its first entry in models.xml, or name#k for the k-th entry of that
+    // name. size 0 keeps the configured size, any other value replaces every dimension greater than 1.
+    public static ModelEntry entry(String label, int size) throws IOException {
+        int hash = label.indexOf('#');
+        String name = hash < 0 ? label : label.substring(0, hash);
+        int k = hash < 0 ? 1 : Integer.parseInt(label.substring(hash + 1));
+
+        List<ModelEntry> entries = ModelEntry.read(new File("models.xml"));
+        for (ModelEntry entry : entries) {
+            if (entry.name().equals(name) && --k == 0) {
+                return size > 0 ? entry.resized(size) : entry;
+            }
+        }
+        throw new IllegalArgumentException("no entry " + label + " in models.xml");
+    }
+
+    public static Interpreter load(ModelEntry entry) throws IOException {
+        Interpreter interpreter = entry.load();
+        if (interpreter == null) {
+            throw new IllegalStateException("failed to load " + entry);
+        }
+        return interpreter;
+    }
+
+    // Runs the model to the end, leaving the final state in interpreter.grid
+    public static void runToEnd(Interpreter interpreter, int seed, int steps) {
+        for (Interpreter.RunResult ignored : interpreter.run(seed, steps, false)) {
+        }
+    }
+
+    // The first node of the given type, in depth-first order
+    public static <T extends Node> T find(Node node, Class<T> type) {
+        if (type.isInstance(node)) {
+            return type.cast(node);
+        }
+        if (node instanceof Branch branch) {
+            for (Node child : branch.nodes) {
+                T result = find(child, type);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    public static <T extends Node> T require(Interpreter interpreter, Class<T> type) {
+        T node = find(interpreter.root, type);
+        if (node == null) {
+            throw new IllegalStateException(interpreter.name + " has no " + type.getSimpleName());
+        }
+        return node;
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore;
+
+import com.jxon.juscore.mjcore.utils.Rng;
+import com.jxon.juscore.mjcore.utils.XMLHelper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Element;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Whole-model benchmarks: loading, complete runs and single steps. model and size are resolved by
+// BenchmarkModels.entry, so any entry of models.xml can be passed with -p model=...
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ModelBenchmark {
+    @Param({"Basic", "MazeGrowth", "DungeonGrowth", "BasicDijkstraFill", "Cave", "Knots2D"})
+    public String model;
+
+    @Param({"0"})
+    public int size;
+
+    @Param({"12345"})
+    public int seed;
+
+    @Param({"COMPATIBLE"})
+    public Rng.Kind random;
+
+    private ModelEntry entry;
+    private Element root;
+    private Interpreter interpreter;
+    private int steps;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        entry = BenchmarkModels.entry(model, size);
+        root = XMLHelper.loadDocument(new File(entry.filename())).getDocumentElement();
+        interpreter = BenchmarkModels.load(entry);
+        interpreter.randomKind = random;
+        steps = entry.gif() ? 1000 : entry.steps();
+    }
+
+    // Interpreter.load on a parsed document: grid, rules with their symmetries, fields and WFC propagators
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Interpreter load() {
+        return Interpreter.load(root, entry.MX(), entry.MY(), entry.MZ());
+    }
+
+    // A complete run with the step limit of models.xml
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] run() {
+        BenchmarkModels.runToEnd(interpreter, seed, steps);
+        return interpreter.grid.state;
+    }
+
+    // Steps per second over the whole run; a run that ends is started again with the next seed
+    @State(Scope.Thread)
+    public static class Stepping {
+        int next;
+
+        @Setup(Level.Iteration)
+        public void start(ModelBenchmark benchmark) {
+            next = benchmark.seed;
+            benchmark.interpreter.run(next, benchmark.steps, false);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void step(Stepping stepping, Blackhole blackhole) {
+        if ((steps > 0 && interpreter.counter >= steps) || !interpreter.step()) {
+            interpreter.run(++stepping.next, steps, false);
+        }
+        blackhole.consume(interpreter.counter);
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.models;
+
+import com.jxon.juscore.mjcore.utils.XMLHelper;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Element;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Field.compute on a side x side grid of open cells B with a share of walls W and a few sources R
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FieldBenchmark {
+    @Param({"60", "360", "800"})
+    public int side;
+
+    @Param({"0.3"})
+    public double walls;
+
+    private Grid grid;
+    private Field field;
+    private int[] potential;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Element element = XMLHelper.loadDocument("<one values=\"BWR\" in=\"RB\" out=\"RR\"><field for=\"R\" on=\"B\" to=\"R\"/></one>")
+                .getDocumentElement();
+        grid = Grid.load(element, side, side, 1);
+        field = new Field(XMLHelper.getDirectChildElements(element, "field").get(0), grid);
+        potential = new int[grid.state.length];
+
+        Random random = new Random(12345);
+        for (int i = 0; i < grid.state.length; i++) {
+            double r = random.nextDouble();
+            grid.state[i] = (byte) (r < walls ? 1 : r < walls + 0.001 ? 2 : 0);
+        }
+    }
+
+    @Benchmark
+    public int[] compute() {
+        field.compute(potential, grid);
+        return potential;
+    }
+}
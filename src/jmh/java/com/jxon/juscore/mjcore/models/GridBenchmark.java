@@ -0,0 +1,54 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.models;
+
+import com.jxon.juscore.mjcore.BenchmarkModels;
+import com.jxon.juscore.mjcore.Interpreter;
+import com.jxon.juscore.mjcore.ModelEntry;
+import com.jxon.juscore.mjcore.nodes.RuleNode;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Grid.matches for every rule of the model's first rule node at every position where it fits, on the final state
+// of a run
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GridBenchmark {
+    @Param({"Basic", "MazeGrowth", "DungeonGrowth"})
+    public String model;
+
+    @Param({"0"})
+    public int size;
+
+    private Grid grid;
+    private Rule[] rules;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ModelEntry entry = BenchmarkModels.entry(model, size);
+        Interpreter interpreter = BenchmarkModels.load(entry);
+        rules = BenchmarkModels.require(interpreter, RuleNode.class).rules;
+        BenchmarkModels.runToEnd(interpreter, 12345, entry.steps());
+        grid = interpreter.grid;
+    }
+
+    @Benchmark
+    public int matches() {
+        int count = 0;
+        for (Rule rule : rules) {
+            for (int z = 0; z + rule.IMZ <= grid.MZ; z++) {
+                for (int y = 0; y + rule.IMY <= grid.MY; y++) {
+                    for (int x = 0; x + rule.IMX <= grid.MX; x++) {
+                        if (grid.matches(rule, x, y, z)) count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,47 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.nodes;
+
+import com.jxon.juscore.mjcore.BenchmarkModels;
+import com.jxon.juscore.mjcore.Interpreter;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One ConvolutionNode.go of the model's first convolution node, on a grid filled with random values. The node
+// keeps rewriting the same grid, so later invocations see the states the rules evolve towards.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConvolutionNodeBenchmark {
+    @Param({"Cave", "GameOfLife", "ForestFireCA"})
+    public String convolutionModel;
+
+    @Param({"0"})
+    public int size;
+
+    private ConvolutionNode convolution;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Interpreter interpreter = BenchmarkModels.load(BenchmarkModels.entry(convolutionModel, size));
+        convolution = BenchmarkModels.require(interpreter, ConvolutionNode.class);
+        interpreter.run(12345, 0, false);
+        convolution.steps = -1;
+
+        Random random = new Random(12345);
+        byte[] state = convolution.grid.state;
+        for (int i = 0; i < state.length; i++) {
+            state[i] = (byte) random.nextInt(convolution.grid.C);
+        }
+    }
+
+    @Benchmark
+    public boolean go() {
+        return convolution.go();
+    }
+}
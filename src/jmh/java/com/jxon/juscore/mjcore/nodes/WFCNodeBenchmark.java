@@ -0,0 +1,54 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.nodes;
+
+import com.jxon.juscore.mjcore.BenchmarkModels;
+import com.jxon.juscore.mjcore.Interpreter;
+import com.jxon.juscore.mjcore.utils.Rng;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// WFCNode.propagate after a single observation on the starting wave of the model's first WFC node. Every
+// invocation starts from that wave again, so the work measured is one full propagation front.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WFCNodeBenchmark {
+    @Param({"Knots2D", "TileDungeon", "WaveBrickWall"})
+    public String wfcModel;
+
+    @Param({"0"})
+    public int size;
+
+    private WFCNode wfc;
+    private final Rng random = new Rng.Compatible(12345);
+    private int cell;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Interpreter interpreter = BenchmarkModels.load(BenchmarkModels.entry(wfcModel, size));
+        wfc = BenchmarkModels.require(interpreter, WFCNode.class);
+        interpreter.run(12345, 0, false);
+        // Step until the WFC node has been entered, its first go() builds the starting wave
+        while (interpreter.current != wfc && interpreter.step()) {
+        }
+        if (interpreter.current != wfc) {
+            throw new IllegalStateException(wfcModel + " did not reach its WFC node");
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void rewind() {
+        wfc.rewind();
+        cell = random.nextInt(wfc.grid.state.length);
+    }
+
+    @Benchmark
+    public boolean propagate() {
+        return wfc.collapse(cell, random);
+    }
+}
@@ -0,0 +1,43 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import org.openjdk.jmh.annotations.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Drawing a 2d grid of random colors as Program does, before the png encoding
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GraphicsBenchmark {
+    @Param({"60", "800"})
+    public int side;
+
+    @Param({"4"})
+    public int pixelsize;
+
+    private byte[] state;
+    private final int[] colors = {0xFF000000, 0xFFFFFFFF, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF};
+
+    @Setup
+    public void setup() {
+        Random random = new Random(12345);
+        state = new byte[side * side];
+        for (int i = 0; i < state.length; i++) state[i] = (byte) random.nextInt(colors.length);
+    }
+
+    @Benchmark
+    public BufferedImage renderImage() {
+        return Graphics.renderImage(state, side, side, 1, colors, pixelsize, 0);
+    }
+
+    @Benchmark
+    public int[] bitmapRender() {
+        return Graphics.bitmapRender(state, side, side, colors, pixelsize, 0).bitmap();
+    }
+}
@@ -0,0 +1,43 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+// Cost of the draws the stochastic nodes make, for java.util.Random and each Rng.Kind
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RngBenchmark {
+    @Param({"RANDOM", "COMPATIBLE", "XOSHIRO"})
+    public String generator;
+
+    private RandomGenerator random;
+
+    @Setup
+    public void setup() {
+        random = generator.equals("RANDOM") ? new Random(12345) : Rng.Kind.valueOf(generator).create(12345);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public double nextDouble() {
+        double sum = 0;
+        for (int k = 0; k < 1000; k++) sum += random.nextDouble();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public int nextIntBounded() {
+        int sum = 0;
+        for (int k = 0; k < 1000; k++) sum += random.nextInt(k + 1);
+        return sum;
+    }
+}
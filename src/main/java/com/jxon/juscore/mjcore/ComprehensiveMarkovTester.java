@@ -6,6 +6,7 @@ import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.models.Rule;
 import com.jxon.juscore.mjcore.utils.Graphics;
 import com.jxon.juscore.mjcore.utils.VoxHelper;
+import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import javax.xml.parsers.DocumentBuilder;
@@ -330,9 +331,7 @@ public class ComprehensiveMarkovTester {
 
     private static boolean testExternalModel(String modelName, int MX, int MY, int MZ, int steps) {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File("models/" + modelName + ".xml"));
+            Document doc = XMLHelper.loadDocument(new File("models/" + modelName + ".xml"));
 
             Interpreter interpreter = Interpreter.load(doc.getDocumentElement(), MX, MY, MZ);
             if (interpreter == null) return false;
@@ -399,9 +398,7 @@ public class ComprehensiveMarkovTester {
 
     private static Interpreter createInterpreterFromXML(String xml, int MX, int MY, int MZ) {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new ByteArrayInputStream(xml.getBytes()));
+            Document doc = XMLHelper.loadDocument(xml);
             return Interpreter.load(doc.getDocumentElement(), MX, MY, MZ);
         } catch (Exception e) {
             return null;
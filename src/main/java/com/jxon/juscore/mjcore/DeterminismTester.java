@@ -0,0 +1,187 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Checks that every model of models.xml still produces the same output for a fixed seed. Each entry is run once at
+// its configured size, with its first seed from models.xml or DEFAULT_SEED, and the final state is hashed. The
+// hashes are compared against the golden file, one line per entry:
+//
+//     label MXxMYxMZ seed steps state-hash [frames-hash]
+//
+// where label is the model name for its first entry and name#k for the k-th entry of the same name. The
+// frames hash covers every state the run went through and is only computed with --frames.
+//
+// Options:
+//     --update          write the golden file from the current engine instead of comparing
+//     --frames          also hash every frame, which runs every model in gif mode
+//     --golden <file>   golden file to use, resources/golden.txt by default
+//     --only <regex>    only the entries whose label matches
+//
+// Runs from the project directory without any Minecraft classes; exits with status 1 if an entry differs.
+public final class DeterminismTester {
+
+    private DeterminismTester() {} // Prevent instantiation
+
+    public static final int DEFAULT_SEED = 12345;
+
+    public static void main(String[] args) throws IOException {
+        boolean update = false, frames = false;
+        Path golden = Paths.get("resources", "golden.txt");
+        Pattern only = null;
+        for (int k = 0; k < args.length; k++) {
+            switch (args[k]) {
+                case "--update" -> update = true;
+                case "--frames" -> frames = true;
+                case "--golden" -> golden = Paths.get(args[++k]);
+                case "--only" -> only = Pattern.compile(args[++k]);
+                default -> {
+                    System.out.println("unknown option " + args[k]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        Map<String, Result> expected = Files.exists(golden) ? read(golden) : new LinkedHashMap<>();
+        Map<String, Result> actual = new LinkedHashMap<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        int failures = 0;
+        long start = System.currentTimeMillis();
+
+        for (ModelEntry entry : ModelEntry.read(new File("models.xml"))) {
+            int occurrence = occurrences.merge(entry.name(), 1, Integer::sum);
+            String label = occurrence == 1 ? entry.name() : entry.name() + "#" + occurrence;
+            if (only != null && !only.matcher(label).find()) {
+                if (expected.containsKey(label)) actual.put(label, expected.get(label));
+                continue;
+            }
+
+            System.out.print(label + " > ");
+            long entryStart = System.currentTimeMillis();
+            Result result = run(entry, frames);
+            actual.put(label, result);
+            long elapsed = System.currentTimeMillis() - entryStart;
+            if (result == null) {
+                System.out.println("ERROR");
+                failures++;
+                continue;
+            }
+
+            Result old = expected.get(label);
+            if (update || old == null) {
+                System.out.println((old == null ? "NEW " : "") + result.state + " (" + elapsed + "ms)");
+            } else if (result.matches(old)) {
+                System.out.println("OK (" + elapsed + "ms)");
+            } else {
+                System.out.println("DIFFERS: expected " + old + ", got " + result);
+                failures++;
+            }
+        }
+
+        if (update) {
+            write(golden, actual);
+            System.out.println("wrote " + actual.size() + " entries to " + golden);
+        } else {
+            for (String label : expected.keySet()) {
+                if (!actual.containsKey(label)) System.out.println(label + " > MISSING from models.xml");
+            }
+            System.out.println((failures == 0 ? "all entries match" : failures + " entries differ") +
+                    ", time = " + (System.currentTimeMillis() - start));
+        }
+        if (failures > 0 && !update) System.exit(1);
+    }
+
+    // null if the model fails to load
+    static Result run(ModelEntry entry, boolean frames) {
+        Interpreter interpreter;
+        try {
+            interpreter = entry.load();
+        } catch (IOException e) {
+            return null;
+        }
+        if (interpreter == null) return null;
+
+        int seed = entry.hasSeed(0) ? entry.seeds()[0] : DEFAULT_SEED;
+        MessageDigest frameDigest = frames ? sha256() : null;
+        Interpreter.RunResult last = null;
+        for (Interpreter.RunResult result : interpreter.run(seed, entry.steps(), frames)) {
+            if (frameDigest != null) update(frameDigest, result);
+            last = result;
+        }
+
+        MessageDigest stateDigest = sha256();
+        update(stateDigest, last);
+        return new Result(last.FX() + "x" + last.FY() + "x" + last.FZ(), seed, interpreter.counter,
+                hex(stateDigest), frameDigest == null ? null : hex(frameDigest));
+    }
+
+    private static void update(MessageDigest digest, Interpreter.RunResult result) {
+        digest.update(new String(result.legend()).getBytes(StandardCharsets.UTF_8));
+        digest.update(result.state());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The first 64 bits of the digest, which is plenty to tell outputs apart
+    private static String hex(MessageDigest digest) {
+        byte[] bytes = digest.digest();
+        StringBuilder sb = new StringBuilder(16);
+        for (int k = 0; k < 8; k++) sb.append(String.format("%02x", bytes[k]));
+        return sb.toString();
+    }
+
+    static Map<String, Result> read(Path file) throws IOException {
+        Map<String, Result> result = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            result.put(parts[0], new Result(parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), parts[4],
+                    parts.length > 5 ? parts[5] : null));
+        }
+        return result;
+    }
+
+    static void write(Path file, Map<String, Result> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# Final state hashes of every models.xml entry, checked by DeterminismTester.");
+        lines.add("# Regenerate with --update only when an output change is intended.");
+        for (Map.Entry<String, Result> e : results.entrySet()) {
+            if (e.getValue() != null) lines.add(e.getKey() + " " + e.getValue());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    record Result(String size, int seed, int steps, String state, String frames) {
+        // Frame hashes are compared only when both sides have them
+        boolean matches(Result golden) {
+            return size.equals(golden.size) && seed == golden.seed && steps == golden.steps && state.equals(golden.state) &&
+                    (frames == null || golden.frames == null || frames.equals(golden.frames));
+        }
+
+        @Override
+        public String toString() {
+            return size + " " + seed + " " + steps + " " + state + (frames == null ? "" : " " + frames);
+        }
+    }
+}
@@ -7,37 +7,67 @@ import com.jxon.juscore.mjcore.models.Rule;
 import com.jxon.juscore.mjcore.nodes.Branch;
 import com.jxon.juscore.mjcore.nodes.MarkovNode;
 import com.jxon.juscore.mjcore.nodes.Node;
+import com.jxon.juscore.mjcore.nodes.NodeMetrics;
 import com.jxon.juscore.mjcore.utils.AH;
+import com.jxon.juscore.mjcore.utils.Events;
+import com.jxon.juscore.mjcore.utils.Log;
+import com.jxon.juscore.mjcore.utils.Philox;
+import com.jxon.juscore.mjcore.utils.Rng;
 import com.jxon.juscore.mjcore.utils.SymmetryHelper;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
 
 public class Interpreter {
+    // Model name used in events, the file name of the model when it was loaded from a file
+    public String name;
+    public int seed;
     public Branch root, current;
     public Grid grid;
     private Grid startgrid;
     
     private boolean origin;
-    public Random random;
+    public Rng random;
+    // Generator used for every run, COMPATIBLE reproduces the outputs of java.util.Random
+    public Rng.Kind randomKind = Rng.Kind.COMPATIBLE;
+    // Counter-based draws of the cellular nodes, only set when randomKind is COUNTER
+    public Philox cellRandom;
+    // Number of nodes created so far, which numbers them for cellRandom
+    public int nodeCount;
     
     public List<Rule.Tuple3> changes;
     public List<Integer> first;
     public int counter;
     
     public boolean gif;
+    // Measure the time spent in every node, see metrics()
+    public boolean timing;
     
     private Interpreter() {}
     
     public static Interpreter load(Element element, int MX, int MY, int MZ) {
+        Events.Load event = new Events.Load();
+        event.begin();
+        Interpreter ip = create(element, MX, MY, MZ);
+        event.end();
+        if (event.shouldCommit()) {
+            event.describe(modelName(element), MX, MY, MZ, 0, 0);
+            event.success = ip != null;
+            event.commit();
+        }
+        return ip;
+    }
+
+    private static Interpreter create(Element element, int MX, int MY, int MZ) {
         Interpreter ip = new Interpreter();
+        ip.name = modelName(element);
         ip.origin = XMLHelper.get(element, "origin", false);
         ip.grid = Grid.load(element, MX, MY, MZ);
         if (ip.grid == null) {
-            System.out.println("failed to load grid");
+            Log.error("failed to load grid");
             return null;
         }
         ip.startgrid = ip.grid;
@@ -61,8 +91,17 @@ public class Interpreter {
         return ip;
     }
     
+    private static String modelName(Element element) {
+        String uri = element.getOwnerDocument() != null ? element.getOwnerDocument().getDocumentURI() : null;
+        if (uri == null) return "";
+        String file = new File(uri).getName();
+        return file.endsWith(".xml") ? file.substring(0, file.length() - 4) : file;
+    }
+    
     public Iterable<RunResult> run(int seed, int steps, boolean gif) {
-        random = new Random(seed);
+        this.seed = seed;
+        random = randomKind.create(seed);
+        cellRandom = randomKind == Rng.Kind.COUNTER ? new Philox(seed) : null;
         grid = startgrid;
         grid.clear();
         if (origin) {
@@ -74,6 +113,7 @@ public class Interpreter {
         first.add(0);
         
         root.reset();
+        NodeMetrics.clear(root);
         current = root;
         
         this.gif = gif;
@@ -82,6 +122,11 @@ public class Interpreter {
         return () -> new Iterator<>() {
             private boolean hasNext = true;
             private boolean firstResult = true;
+            private final Events.Run event = new Events.Run();
+
+            {
+                event.begin();
+            }
 
             @Override
             public boolean hasNext() {
@@ -92,37 +137,54 @@ public class Interpreter {
             public RunResult next() {
                 if (firstResult && gif && current != null && (steps <= 0 || counter < steps)) {
                     firstResult = false;
-                    System.out.println("[" + counter + "]");
+                    if (Log.isDebugEnabled()) Log.debug("[{}]", counter);
                     return new RunResult(grid.state.clone(), grid.characters.clone(), grid.MX, grid.MY, grid.MZ);
                 }
 
                 while (current != null && (steps <= 0 || counter < steps)) {
                     if (gif) {
-                        System.out.println("[" + counter + "]");
+                        if (Log.isDebugEnabled()) Log.debug("[{}]", counter);
                         RunResult result = new RunResult(grid.state.clone(), grid.characters.clone(), grid.MX, grid.MY, grid.MZ);
-                        current.go();
-                        counter++;
-                        first.add(changes.size());
+                        step();
                         return result;
                     } else {
-                        current.go();
-                        counter++;
-                        first.add(changes.size());
+                        step();
                     }
                 }
 
                 hasNext = false;
+                event.end();
+                if (event.shouldCommit()) {
+                    event.describe(name, grid.MX, grid.MY, grid.MZ, seed, counter);
+                    event.limit = Math.max(steps, 0);
+                    event.commit();
+                }
                 return new RunResult(grid.state.clone(), grid.characters.clone(), grid.MX, grid.MY, grid.MZ);
             }
         };
     }
     
+    // Advances the run started by run() by one step, without producing a result. Returns false once the run is over.
+    public boolean step() {
+        if (current == null) return false;
+        current.step();
+        counter++;
+        first.add(changes.size());
+        return true;
+    }
+
+    // Per-node counters of the last run, root first, then its descendants in depth-first order
+    public List<NodeMetrics.Snapshot> metrics() {
+        return NodeMetrics.collect(root);
+    }
+
+    // Reports a problem with the model being loaded
     public static void writeLine(String s) {
-        System.out.println(s);
+        Log.error(s);
     }
     
     public static void write(String s) {
-        System.out.print(s);
+        Log.error(s);
     }
 
     public record RunResult(byte[] state, char[] legend, int FX, int FY, int FZ) {
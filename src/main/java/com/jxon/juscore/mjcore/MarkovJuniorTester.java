@@ -7,8 +7,6 @@ import com.jxon.juscore.mjcore.utils.VoxHelper;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -104,12 +102,10 @@ public class MarkovJuniorTester {
 
             // 加载模型XML文件
             String filename = "models/" + model.name + ".xml";
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
             Document modelDoc;
 
             try {
-                modelDoc = builder.parse(new File(filename));
+                modelDoc = XMLHelper.loadDocument(new File(filename));
             } catch (Exception e) {
                 System.out.println("错误: 无法打开XML文件 " + filename);
                 System.out.println("详细错误: " + e.getMessage());
@@ -231,9 +227,7 @@ public class MarkovJuniorTester {
         Map<Character, Integer> palette = new HashMap<>();
 
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File(filename));
+            Document doc = XMLHelper.loadDocument(new File(filename));
 
             var colorNodes = doc.getElementsByTagName("color");
             for (int i = 0; i < colorNodes.getLength(); i++) {
@@ -303,9 +297,7 @@ public class MarkovJuniorTester {
         try {
             System.out.println("独立测试模型: " + modelName);
 
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File("models/" + modelName + ".xml"));
+            Document doc = XMLHelper.loadDocument(new File("models/" + modelName + ".xml"));
 
             Interpreter interpreter = Interpreter.load(doc.getDocumentElement(), MX, MY, MZ);
             if (interpreter == null) {
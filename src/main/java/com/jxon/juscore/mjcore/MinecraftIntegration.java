@@ -9,15 +9,15 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
+import com.jxon.juscore.mjcore.utils.Events;
+import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Document;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.ByteArrayInputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Minecraft集成示例类
@@ -27,6 +27,8 @@ public class MinecraftIntegration {
 
     // 预定义的生成规则模板
     private static final Map<String, String> GENERATION_TEMPLATES = new HashMap<>();
+    // 已解析的模板，每个模板只解析一次
+    private static final Map<String, Document> PARSED_TEMPLATES = new ConcurrentHashMap<>();
     
     static {
         // 简单的洞穴生成
@@ -87,7 +89,7 @@ public class MinecraftIntegration {
             // 异步生成以避免阻塞主线程
             CompletableFuture.runAsync(() -> {
                 try {
-                    generateStructureAsync(world, center, template, size, seed);
+                    generateStructureAsync(world, center, structureType, template, size, seed);
                 } catch (Exception e) {
                     System.out.println("Error generating structure: " + e.getMessage());
                 }
@@ -98,18 +100,26 @@ public class MinecraftIntegration {
         }
     }
     
-    private static void generateStructureAsync(World world, BlockPos center, String template, 
+    private static void generateStructureAsync(World world, BlockPos center, String structureType, String template,
                                              int size, long seed) throws Exception {
         // 创建解释器
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(new ByteArrayInputStream(template.getBytes()));
+        Document doc = PARSED_TEMPLATES.get(template);
+        if (doc == null) {
+            Document parsed = XMLHelper.loadDocument(template);
+            doc = PARSED_TEMPLATES.putIfAbsent(template, parsed);
+            if (doc == null) doc = parsed;
+        }
         
-        Interpreter interpreter = Interpreter.load(doc.getDocumentElement(), size, size, size/4 + 1);
+        // DOM读取不是线程安全的，异步生成时对同一模板的加载需要串行
+        Interpreter interpreter;
+        synchronized (doc) {
+            interpreter = Interpreter.load(doc.getDocumentElement(), size, size, size/4 + 1);
+        }
         if (interpreter == null) {
             System.out.println("Failed to create interpreter");
             return;
         }
+        interpreter.name = structureType;
         
         // 生成结构
         Interpreter.RunResult lastResult = null;
@@ -124,7 +134,7 @@ public class MinecraftIntegration {
             // 在主线程中应用结果到世界
             Interpreter.RunResult finalLastResult = lastResult;
             world.getServer().execute(() -> {
-                applyResultToWorld(world, center, finalLastResult);
+                applyResultToWorld(world, center, structureType, seed, finalLastResult);
             });
         }
     }
@@ -132,7 +142,11 @@ public class MinecraftIntegration {
     /**
      * 将MarkovJunior生成结果应用到Minecraft世界中
      */
-    private static void applyResultToWorld(World world, BlockPos center, Interpreter.RunResult result) {
+    private static void applyResultToWorld(World world, BlockPos center, String structureType, long seed,
+                                           Interpreter.RunResult result) {
+        Events.Apply event = new Events.Apply();
+        event.begin();
+        int blocks = 0;
         try {
             int halfX = result.FX() / 2;
             int halfZ = result.FZ() / 2;
@@ -152,11 +166,17 @@ public class MinecraftIntegration {
                 
                 if (block != Blocks.AIR) {
                     world.setBlockState(pos, block.getDefaultState());
+                    blocks++;
                 }
             }
         } catch (Exception e) {
             System.out.println("Error applying result to world: " + e.getMessage());
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.describe(structureType, result.FX(), result.FY(), result.FZ(), seed, blocks);
+            event.commit();
+        }
     }
     
     /**
@@ -0,0 +1,78 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore;
+
+import com.jxon.juscore.mjcore.utils.XMLHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// One <model> entry of models.xml, with the defaults Program applies to missing attributes
+public record ModelEntry(String name, int MX, int MY, int MZ, int amount, int pixelsize, int[] seeds,
+                         boolean gif, boolean iso, int steps, int gui, Element element) {
+
+    public static ModelEntry of(Element element) {
+        String name = XMLHelper.get(element, "name");
+        int linearSize = XMLHelper.get(element, "size", -1);
+        int dimension = XMLHelper.get(element, "d", 2);
+        int MX = XMLHelper.get(element, "length", linearSize);
+        int MY = XMLHelper.get(element, "width", linearSize);
+        int MZ = XMLHelper.get(element, "height", dimension == 2 ? 1 : linearSize);
+
+        String seedString = XMLHelper.get(element, "seeds", (String) null);
+        int[] seeds = null;
+        if (seedString != null) {
+            String[] seedStrings = seedString.split(" ");
+            seeds = new int[seedStrings.length];
+            for (int j = 0; j < seedStrings.length; j++) {
+                seeds[j] = Integer.parseInt(seedStrings[j]);
+            }
+        }
+        boolean gif = XMLHelper.get(element, "gif", false);
+
+        return new ModelEntry(name, MX, MY, MZ, XMLHelper.get(element, "amount", 2), XMLHelper.get(element, "pixelsize", 4),
+                seeds, gif, XMLHelper.get(element, "iso", false), XMLHelper.get(element, "steps", gif ? 1000 : 50000),
+                XMLHelper.get(element, "gui", 0), element);
+    }
+
+    public static List<ModelEntry> read(File file) throws IOException {
+        Document doc = XMLHelper.loadDocument(file);
+        NodeList modelNodes = doc.getElementsByTagName("model");
+        List<ModelEntry> result = new ArrayList<>(modelNodes.getLength());
+        for (int i = 0; i < modelNodes.getLength(); i++) {
+            result.add(of((Element) modelNodes.item(i)));
+        }
+        return result;
+    }
+
+    // The same model with every dimension of size greater than 1 set to size
+    public ModelEntry resized(int size) {
+        return new ModelEntry(name, size, MY == 1 ? 1 : size, MZ == 1 ? 1 : size, amount, pixelsize, seeds, gif, iso, steps,
+                gui, element);
+    }
+
+    // Whether the entry fixes the seed of its k-th run
+    public boolean hasSeed(int k) {
+        return seeds != null && k < seeds.length;
+    }
+
+    public String filename() {
+        return "models/" + name + ".xml";
+    }
+
+    // Loads models/<name>.xml relative to the working directory. Returns null if the model has errors, which
+    // Interpreter.load has already reported.
+    public Interpreter load() throws IOException {
+        Document modelDoc = XMLHelper.loadDocument(new File(filename()));
+        return Interpreter.load(modelDoc.getDocumentElement(), MX, MY, MZ);
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + MX + "x" + MY + "x" + MZ;
+    }
+}
@@ -8,8 +8,7 @@ import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -18,11 +17,23 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public final class Program {
 
     private Program() {} // Prevent instantiation
 
+    // Encodes images while the next model runs. A full queue makes the generating thread encode the image itself,
+    // so at most a few rendered images wait in memory.
+    private static ThreadPoolExecutor encoder;
+
+    // Rules of generateSimpleGrid, parsed once per distinct XML string. Callers such as terrain generation pass
+    // the same few constant rules for every chunk.
+    private static final Map<String, Document> PARSED_RULES = new ConcurrentHashMap<>();
+
     public static void main(String[] args) {
         long startTime = System.currentTimeMillis();
 
@@ -48,11 +59,12 @@ public final class Program {
         Map<Character, Integer> palette = loadPalette("resources/palette.xml");
 
         Random meta = new Random();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        encoder = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
 
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File("models.xml"));
+            Document doc = XMLHelper.loadDocument(new File("models.xml"));
 
             NodeList modelNodes = doc.getElementsByTagName("model");
             for (int i = 0; i < modelNodes.getLength(); i++) {
@@ -64,57 +76,42 @@ public final class Program {
             e.printStackTrace();
         }
 
+        encoder.shutdown();
+        try {
+            encoder.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
         long endTime = System.currentTimeMillis();
         System.out.println("time = " + (endTime - startTime));
     }
 
     private static void processModel(Element modelElement, Random meta, Map<Character, Integer> palette) {
         try {
-            String name = XMLHelper.get(modelElement, "name");
-            int linearSize = XMLHelper.get(modelElement, "size", -1);
-            int dimension = XMLHelper.get(modelElement, "d", 2);
-            int MX = XMLHelper.get(modelElement, "length", linearSize);
-            int MY = XMLHelper.get(modelElement, "width", linearSize);
-            int MZ = XMLHelper.get(modelElement, "height", dimension == 2 ? 1 : linearSize);
+            ModelEntry model = ModelEntry.of(modelElement);
+            String name = model.name();
 
             System.out.print(name + " > ");
-            String filename = "models/" + name + ".xml";
 
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document modelDoc;
+            Interpreter interpreter;
             try {
-                modelDoc = builder.parse(new File(filename));
+                interpreter = model.load();
             } catch (Exception e) {
-                System.out.println("ERROR: couldn't open xml file " + filename);
+                System.out.println("ERROR: couldn't open xml file " + model.filename());
                 return;
             }
-
-            Interpreter interpreter = Interpreter.load(modelDoc.getDocumentElement(), MX, MY, MZ);
             if (interpreter == null) {
                 System.out.println("ERROR");
                 return;
             }
 
-            int amount = XMLHelper.get(modelElement, "amount", 2);
-            int pixelsize = XMLHelper.get(modelElement, "pixelsize", 4);
-            String seedString = XMLHelper.get(modelElement, "seeds", (String) null);
-            int[] seeds = null;
-            if (seedString != null) {
-                String[] seedStrings = seedString.split(" ");
-                seeds = new int[seedStrings.length];
-                for (int j = 0; j < seedStrings.length; j++) {
-                    seeds[j] = Integer.parseInt(seedStrings[j]);
-                }
-            }
-            boolean gif = XMLHelper.get(modelElement, "gif", false);
-            boolean iso = XMLHelper.get(modelElement, "iso", false);
-            int steps = XMLHelper.get(modelElement, "steps", gif ? 1000 : 50000);
-            int gui = XMLHelper.get(modelElement, "gui", 0);
-
-            if (gif) {
-                amount = 1;
-            }
+            boolean gif = model.gif();
+            boolean iso = model.iso();
+            int pixelsize = model.pixelsize();
+            int steps = model.steps();
+            int gui = model.gui();
+            int amount = gif ? 1 : model.amount();
 
             // Custom palette for this model
             Map<Character, Integer> customPalette = new HashMap<>(palette);
@@ -127,7 +124,7 @@ public final class Program {
             }
 
             for (int k = 0; k < amount; k++) {
-                int seed = (seeds != null && k < seeds.length) ? seeds[k] : meta.nextInt();
+                int seed = model.hasSeed(k) ? model.seeds()[k] : meta.nextInt();
 
                 for (Interpreter.RunResult result : interpreter.run(seed, steps, gif)) {
                     int[] colors = new int[result.legend().length];
@@ -138,10 +135,10 @@ public final class Program {
                     String outputname = gif ? ("output/" + interpreter.counter) : ("output/" + name + "_" + seed);
 
                     if (result.FZ() == 1 || iso) {
-                        Graphics.RenderResult renderResult = Graphics.render(result.state(), result.FX(), result.FY(), result.FZ(),
+                        BufferedImage image = Graphics.renderImage(result.state(), result.FX(), result.FY(), result.FZ(),
                                 colors, pixelsize, gui);
                         // Note: GUI drawing would be implemented here if needed
-                        Graphics.saveBitmap(renderResult.bitmap(), renderResult.width(), renderResult.height(), outputname + ".png");
+                        Graphics.saveImageAsync(image, outputname + ".png", encoder);
                     } else {
                         VoxHelper.saveVox(result.state(), (byte) result.FX(), (byte) result.FY(), (byte) result.FZ(),
                                 colors, outputname + ".vox");
@@ -159,9 +156,7 @@ public final class Program {
         Map<Character, Integer> palette = new HashMap<>();
 
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File(filename));
+            Document doc = XMLHelper.loadDocument(new File(filename));
 
             NodeList colorNodes = doc.getElementsByTagName("color");
             for (int i = 0; i < colorNodes.getLength(); i++) {
@@ -189,9 +184,7 @@ public final class Program {
      */
     public static Interpreter.RunResult[] generateFromModel(String modelPath, int MX, int MY, int MZ, int seed, int steps) {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File(modelPath));
+            Document doc = XMLHelper.loadDocument(new File(modelPath));
 
             Interpreter interpreter = Interpreter.load(doc.getDocumentElement(), MX, MY, MZ);
             if (interpreter == null) {
@@ -215,11 +208,18 @@ public final class Program {
      */
     public static byte[] generateSimpleGrid(String rulesXml, int width, int height, int seed, int steps) {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new java.io.ByteArrayInputStream(rulesXml.getBytes()));
+            Document doc = PARSED_RULES.get(rulesXml);
+            if (doc == null) {
+                Document parsed = XMLHelper.loadDocument(rulesXml);
+                doc = PARSED_RULES.putIfAbsent(rulesXml, parsed);
+                if (doc == null) doc = parsed;
+            }
 
-            Interpreter interpreter = Interpreter.load(doc.getDocumentElement(), width, height, 1);
+            // DOM reads are not thread-safe, so loads of the same rules are serialized
+            Interpreter interpreter;
+            synchronized (doc) {
+                interpreter = Interpreter.load(doc.getDocumentElement(), width, height, 1);
+            }
             if (interpreter == null) {
                 return new byte[width * height];
             }
@@ -4,10 +4,9 @@ package com.jxon.juscore.mjcore.models;
 
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
-import java.util.ArrayList;
-import java.util.LinkedList;
+
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
 
 public class Field {
     public boolean recompute, inversed, essential;
@@ -28,64 +27,220 @@ public class Field {
         zero = grid.wave(zeroSymbols);
     }
     
+    // Every cell is enqueued at most once, so a flat array of grid size serves as the BFS queue
+    private int[] queue;
+
+    // State for update(): the potential array and ip.changes position the field was last brought up to date with
+    private int[] lastPotential;
+    private int seen = -1, zeros;
+    private int[] changedStamp, queuedStamp, changed, cleared;
+    private final int[] neighbors = new int[6];
+    private int epoch;
+    private long[] seeds, front;
+
     public boolean compute(int[] potential, Grid grid) {
         int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
-        Queue<FieldQueueItem> front = new LinkedList<>();
-        
-        int ix = 0, iy = 0, iz = 0;
-        for (int i = 0; i < grid.state.length; i++) {
-            potential[i] = -1;
-            byte value = grid.state[i];
-            if ((zero & (1 << value)) != 0) {
+        int MXY = MX * MY;
+        byte[] state = grid.state;
+        if (queue == null || queue.length < state.length) queue = new int[state.length];
+        int[] queue = this.queue;
+        int head = 0, tail = 0;
+
+        for (int i = 0; i < state.length; i++) {
+            if ((zero & (1 << state[i])) != 0) {
                 potential[i] = 0;
-                front.offer(new FieldQueueItem(0, ix, iy, iz));
+                queue[tail++] = i;
+            } else {
+                potential[i] = -1;
             }
-            
-            ix++;
-            if (ix == MX) {
-                ix = 0;
-                iy++;
-                if (iy == MY) {
-                    iy = 0;
-                    iz++;
+        }
+
+        zeros = tail;
+        seen = -1;
+        if (tail == 0) {
+            return false;
+        }
+
+        while (head < tail) {
+            int i = queue[head++];
+            int t = potential[i] + 1;
+            int x = i % MX, y = (i % MXY) / MX, z = i / MXY;
+
+            if (x > 0) tail = visit(i - 1, t, potential, state, queue, tail);
+            if (x < MX - 1) tail = visit(i + 1, t, potential, state, queue, tail);
+            if (y > 0) tail = visit(i - MX, t, potential, state, queue, tail);
+            if (y < MY - 1) tail = visit(i + MX, t, potential, state, queue, tail);
+            if (z > 0) tail = visit(i - MXY, t, potential, state, queue, tail);
+            if (z < MZ - 1) tail = visit(i + MXY, t, potential, state, queue, tail);
+        }
+
+        return true;
+    }
+
+    private int visit(int i, int t, int[] potential, byte[] state, int[] queue, int tail) {
+        if (potential[i] == -1 && (substrate & (1 << state[i])) != 0) {
+            potential[i] = t;
+            queue[tail++] = i;
+        }
+        return tail;
+    }
+    
+    // Brings potential up to date with the cells changed since the previous call, as recorded in changes.
+    // Falls back to compute on the first call, when asked to, or when the change set is large.
+    public boolean update(int[] potential, Grid grid, List<Rule.Tuple3> changes, boolean full) {
+        int n = changes.size() - seen;
+        if (full || seen < 0 || n < 0 || potential != lastPotential || n > grid.state.length / 8) {
+            boolean result = compute(potential, grid);
+            lastPotential = potential;
+            seen = changes.size();
+            return result;
+        }
+
+        int MX = grid.MX, MY = grid.MY, MXY = MX * MY;
+        byte[] state = grid.state;
+        int length = state.length;
+        if (changedStamp == null || changedStamp.length != length) {
+            changedStamp = new int[length];
+            queuedStamp = new int[length];
+            cleared = new int[length];
+            front = new long[length];
+            seeds = new long[64];
+            epoch = 0;
+        }
+        if (queue == null || queue.length < length) queue = new int[length];
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(changedStamp, 0);
+            Arrays.fill(queuedStamp, 0);
+            epoch = 1;
+        }
+
+        // Distinct changed cells. A zero cell is exactly a cell with potential 0, so the zero count can be
+        // maintained from the old potentials before anything is modified.
+        if (changed == null || changed.length < n) changed = new int[Math.max(n, 64)];
+        int[] changed = this.changed;
+        int changedCount = 0;
+        for (int k = seen; k < changes.size(); k++) {
+            Rule.Tuple3 change = changes.get(k);
+            int i = change.x() + change.y() * MX + change.z() * MXY;
+            if (changedStamp[i] == epoch) continue;
+            changedStamp[i] = epoch;
+            changed[changedCount++] = i;
+            if (potential[i] == 0) zeros--;
+            if ((zero & (1 << state[i])) != 0) zeros++;
+        }
+        seen = changes.size();
+
+        // Invalidation: visit changed cells and their dependents in nondecreasing potential order and clear
+        // every cell that no longer has a neighbor one step closer. The sorted changed cells are merged with
+        // a FIFO of dependents, whose potentials are one more than the cell that queued them.
+        int seedCount = 0;
+        if (seeds.length < changedCount) seeds = new long[changedCount];
+        for (int k = 0; k < changedCount; k++) {
+            int i = changed[k];
+            if (potential[i] >= 0) seeds[seedCount++] = ((long) potential[i] << 32) | i;
+        }
+        Arrays.sort(seeds, 0, seedCount);
+
+        int clearedCount = 0, head = 0, tail = 0, s = 0;
+        while (s < seedCount || head < tail) {
+            int i;
+            if (head < tail && (s == seedCount || potential[queue[head]] <= (int) (seeds[s] >>> 32))) i = queue[head++];
+            else i = (int) seeds[s++];
+
+            int p = potential[i];
+            if (p < 0 || (zero & (1 << state[i])) != 0) continue;
+            if (p > 0 && (substrate & (1 << state[i])) != 0 && hasPotential(i, p - 1, potential, grid)) continue;
+
+            potential[i] = -1;
+            cleared[clearedCount++] = i;
+            int count = neighbors(i, grid);
+            for (int k = 0; k < count; k++) {
+                int j = neighbors[k];
+                if (potential[j] == p + 1 && queuedStamp[j] != epoch) {
+                    queuedStamp[j] = epoch;
+                    queue[tail++] = j;
                 }
             }
         }
-        
-        if (front.isEmpty()) {
-            return false;
+
+        // Repair: new zero cells, cleared cells and newly reachable substrate get upper bounds from their
+        // neighbors, then a unit-weight Dijkstra pass lowers every potential that can be lowered.
+        seedCount = 0;
+        for (int k = 0; k < changedCount; k++) {
+            int i = changed[k];
+            if ((zero & (1 << state[i])) != 0) {
+                potential[i] = 0;
+                seeds = push(seeds, seedCount++, i);
+            }
         }
-        
-        while (!front.isEmpty()) {
-            FieldQueueItem item = front.poll();
-            int t = item.t, x = item.x, y = item.y, z = item.z;
-            List<Rule.Tuple3> neighbors = getNeighbors(x, y, z, MX, MY, MZ);
-            
-            for (Rule.Tuple3 neighbor : neighbors) {
-                int nx = neighbor.x(), ny = neighbor.y(), nz = neighbor.z();
-                int i = nx + ny * grid.MX + nz * grid.MX * grid.MY;
-                byte v = grid.state[i];
-                if (potential[i] == -1 && (substrate & (1 << v)) != 0) {
-                    front.offer(new FieldQueueItem(t + 1, nx, ny, nz));
-                    potential[i] = t + 1;
+        for (int pass = 0; pass < 2; pass++) {
+            int[] cells = pass == 0 ? changed : cleared;
+            int cellCount = pass == 0 ? changedCount : clearedCount;
+            for (int k = 0; k < cellCount; k++) {
+                int i = cells[k];
+                if (potential[i] != -1 || (substrate & (1 << state[i])) == 0) continue;
+                int best = -1;
+                int count = neighbors(i, grid);
+                for (int m = 0; m < count; m++) {
+                    int pj = potential[neighbors[m]];
+                    if (pj >= 0 && (best < 0 || pj < best)) best = pj;
+                }
+                if (best >= 0) {
+                    potential[i] = best + 1;
+                    seeds = push(seeds, seedCount++, ((long) (best + 1) << 32) | i);
                 }
             }
         }
-        
-        return true;
+        Arrays.sort(seeds, 0, seedCount);
+
+        head = 0;
+        tail = 0;
+        s = 0;
+        while (s < seedCount || head < tail) {
+            long entry = head < tail && (s == seedCount || front[head] <= seeds[s]) ? front[head++] : seeds[s++];
+            int i = (int) entry, d = (int) (entry >>> 32);
+            if (potential[i] != d) continue;
+
+            int count = neighbors(i, grid);
+            for (int k = 0; k < count; k++) {
+                int j = neighbors[k];
+                byte v = state[j];
+                if ((zero & (1 << v)) != 0 || (substrate & (1 << v)) == 0) continue;
+                if (potential[j] == -1 || potential[j] > d + 1) {
+                    potential[j] = d + 1;
+                    front[tail++] = ((long) (d + 1) << 32) | j;
+                }
+            }
+        }
+
+        return zeros > 0;
     }
-    
-    private static List<Rule.Tuple3> getNeighbors(int x, int y, int z, int MX, int MY, int MZ) {
-        List<Rule.Tuple3> result = new ArrayList<>();
-        
-        if (x > 0) result.add(new Rule.Tuple3(x - 1, y, z));
-        if (x < MX - 1) result.add(new Rule.Tuple3(x + 1, y, z));
-        if (y > 0) result.add(new Rule.Tuple3(x, y - 1, z));
-        if (y < MY - 1) result.add(new Rule.Tuple3(x, y + 1, z));
-        if (z > 0) result.add(new Rule.Tuple3(x, y, z - 1));
-        if (z < MZ - 1) result.add(new Rule.Tuple3(x, y, z + 1));
-        
-        return result;
+
+    private boolean hasPotential(int i, int p, int[] potential, Grid grid) {
+        int count = neighbors(i, grid);
+        for (int k = 0; k < count; k++) {
+            if (potential[neighbors[k]] == p) return true;
+        }
+        return false;
+    }
+
+    private int neighbors(int i, Grid grid) {
+        int MX = grid.MX, MY = grid.MY, MXY = MX * MY;
+        int x = i % MX, y = (i % MXY) / MX, z = i / MXY;
+        int count = 0;
+        if (x > 0) neighbors[count++] = i - 1;
+        if (x < MX - 1) neighbors[count++] = i + 1;
+        if (y > 0) neighbors[count++] = i - MX;
+        if (y < MY - 1) neighbors[count++] = i + MX;
+        if (z > 0) neighbors[count++] = i - MXY;
+        if (z < grid.MZ - 1) neighbors[count++] = i + MXY;
+        return count;
+    }
+
+    private static long[] push(long[] array, int index, long value) {
+        if (index == array.length) array = Arrays.copyOf(array, array.length * 2);
+        array[index] = value;
+        return array;
     }
     
     public static Integer deltaPointwise(byte[] state, Rule rule, int x, int y, int z, 
@@ -130,7 +285,4 @@ public class Field {
         }
         return sum;
     }
-
-    private record FieldQueueItem(int t, int x, int y, int z) {
-    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@
 package com.jxon.juscore.mjcore.models;
 
 import com.jxon.juscore.mjcore.Interpreter;
+import com.jxon.juscore.mjcore.utils.Log;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
 
@@ -39,7 +40,7 @@ public class Grid {
             return null;
         }
 
-        System.out.println("DEBUG: Loading grid values: '" + valueString + "'");
+        Log.debug("loading grid values '{}'", valueString);
 
         g.C = (byte) valueString.length();
         g.values = new HashMap<>();
@@ -55,7 +56,6 @@ public class Grid {
                 g.characters[i] = symbol;
                 g.values.put(symbol, i);
                 g.waves.put(symbol, 1 << i);
-                System.out.println("DEBUG: Added character '" + symbol + "' with value " + i);
             }
         }
 
@@ -66,7 +66,6 @@ public class Grid {
 
         // Union处理
         g.waves.put('*', (1 << g.C) - 1);
-        System.out.println("DEBUG: Added wildcard '*' with value " + ((1 << g.C) - 1));
 
         List<Element> allDescendants = XMLHelper.myDescendants(element, "markov", "sequence", "union");
         for (Element descendant : allDescendants) {
@@ -77,19 +76,15 @@ public class Grid {
                     return null;
                 } else {
                     String unionValues = XMLHelper.get(descendant, "values");
-                    System.out.println("DEBUG: Processing union symbol '" + symbol + "' with values '" + unionValues + "'");
                     int w = g.wave(unionValues);
                     g.waves.put(symbol, w);
-                    System.out.println("DEBUG: Added union symbol '" + symbol + "' with wave value " + w);
+                    Log.debug("union symbol '{}' = '{}'", symbol, unionValues);
                 }
             }
         }
 
         // 输出所有已加载的字符用于调试
-        System.out.println("DEBUG: All loaded characters and values:");
-        for (Map.Entry<Character, Byte> entry : g.values.entrySet()) {
-            System.out.println("  '" + entry.getKey() + "' -> " + entry.getValue());
-        }
+        Log.debug("loaded characters and values: {}", g.values);
 
         g.state = new byte[MX * MY * MZ];
         g.statebuffer = new byte[MX * MY * MZ];
@@ -102,23 +97,19 @@ public class Grid {
     // 改进wave方法，添加错误处理
     public int wave(String values) {
         if (values == null || values.isEmpty()) {
-            System.out.println("DEBUG: Empty values string in wave()");
             return 0;
         }
 
-        System.out.println("DEBUG: Computing wave for values: '" + values + "'");
         int sum = 0;
         for (int k = 0; k < values.length(); k++) {
             char c = values.charAt(k);
             Byte value = this.values.get(c);
             if (value != null) {
                 sum += 1 << value;
-                System.out.println("DEBUG: Character '" + c + "' contributes " + (1 << value) + " to wave");
             } else {
-                System.out.println("WARNING: Character '" + c + "' not found in values, available characters: " + this.values.keySet());
+                Log.warn("character '{}' not found in values {}", c, this.values.keySet());
             }
         }
-        System.out.println("DEBUG: Final wave value: " + sum);
         return sum;
     }
 
@@ -4,8 +4,8 @@ package com.jxon.juscore.mjcore.models;
 
 import com.jxon.juscore.mjcore.utils.AH;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 public class Observation {
     private final byte from;
@@ -49,64 +49,292 @@ public class Observation {
         for (int i = 0; i < state.length; i++) {
             potentials[state[i]][i] = 0;
         }
-        computePotentials(potentials, MX, MY, MZ, rules, false);
+        computePotentials(potentials, MX, MY, MZ, rules, false, -1);
     }
     
+    // Forward potentials of a state that differs from parent in a few cells, given the parent's potentials. An entry
+    // keeps its parent value as an upper bound unless every match that produced it at that value reads an entry that
+    // could have increased; such entries are invalidated transitively, starting from the colors the changed cells
+    // lost. Invalidated entries are reseeded from their matches, cells that gained a color from 0, and a Dijkstra pass
+    // lowers everything downstream. When too many entries are invalidated the potentials are computed from scratch
+    // and false is returned.
+    public static boolean computeForwardPotentials(int[][] potentials, int[][] parentPotentials, byte[] parent, byte[] state,
+                                                int MX, int MY, int MZ, Rule[] rules) {
+        for (Rule rule : rules) {
+            if (rule.oshifts == null) {
+                computeForwardPotentials(potentials, state, MX, MY, MZ, rules);
+                return false;
+            }
+        }
+
+        int N = state.length, C = potentials.length;
+        for (int c = 0; c < C; c++) System.arraycopy(parentPotentials[c], 0, potentials[c], 0, N);
+
+        Workspace ws = WORKSPACE.get();
+        ws.prepareRepair(C * N);
+        int[] invalid = ws.cleared, list = ws.clearedList;
+        int epoch = ws.repairEpoch;
+        int count = 0, limit = C * N / 8;
+
+        for (int i = 0; i < N; i++) {
+            if (parent[i] != state[i]) {
+                int e = parent[i] * N + i;
+                invalid[e] = epoch;
+                list[count++] = e;
+                potentials[state[i]][i] = 0;
+                ws.push(state[i] * N + i);
+            }
+        }
+
+        for (int k = 0; k < count; k++) {
+            if (count > limit) {
+                computeForwardPotentials(potentials, state, MX, MY, MZ, rules);
+                return false;
+            }
+            int e = list[k];
+            int c = e / N, i = e % N;
+            int x = i % MX, y = (i % (MX * MY)) / MX, z = i / (MX * MY);
+            for (Rule rule : rules) {
+                for (Rule.Tuple3 shift : rule.ishifts[c]) {
+                    int sx = x - shift.x(), sy = y - shift.y(), sz = z - shift.z();
+                    if (sx < 0 || sy < 0 || sz < 0 || sx + rule.IMX > MX || sy + rule.IMY > MY || sz + rule.IMZ > MZ) continue;
+
+                    int m = matchMaximum(rule, sx, sy, sz, parentPotentials, null, 0, N, MX, MY);
+                    if (m < 0) continue;
+
+                    for (int dz = 0; dz < rule.IMZ; dz++) {
+                        for (int dy = 0; dy < rule.IMY; dy++) {
+                            for (int dx = 0; dx < rule.IMX; dx++) {
+                                byte o = rule.output[dx + dy * rule.IMX + dz * rule.IMX * rule.IMY];
+                                if (o == (byte) 0xff) continue;
+                                int j = sx + dx + (sy + dy) * MX + (sz + dz) * MX * MY;
+                                int oe = o * N + j;
+                                if (invalid[oe] == epoch || state[j] == o || parentPotentials[o][j] != m + 1) continue;
+                                if (!supported(o, j, m + 1, parentPotentials, invalid, epoch, N, MX, MY, MZ, rules)) {
+                                    invalid[oe] = epoch;
+                                    list[count++] = oe;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int k = 0; k < count; k++) {
+            int e = list[k];
+            potentials[e / N][e % N] = -1;
+        }
+        for (int k = 0; k < count; k++) {
+            int e = list[k];
+            int c = e / N, i = e % N;
+            int x = i % MX, y = (i % (MX * MY)) / MX, z = i / (MX * MY);
+            for (Rule rule : rules) {
+                for (Rule.Tuple3 shift : rule.oshifts[c]) {
+                    if (rule.output[shift.x() + shift.y() * rule.IMX + shift.z() * rule.IMX * rule.IMY] != c) continue;
+                    int sx = x - shift.x(), sy = y - shift.y(), sz = z - shift.z();
+                    if (sx < 0 || sy < 0 || sz < 0 || sx + rule.IMX > MX || sy + rule.IMY > MY || sz + rule.IMZ > MZ) continue;
+
+                    int m = matchMaximum(rule, sx, sy, sz, potentials, null, 0, N, MX, MY);
+                    if (m >= 0 && (potentials[c][i] == -1 || m + 1 < potentials[c][i])) {
+                        potentials[c][i] = m + 1;
+                        ws.push(((long) (m + 1) << 32) | e);
+                    }
+                }
+            }
+        }
+
+        // Every value is achievable, so entries only ever decrease and are final once popped
+        while (ws.heapSize > 0) {
+            long top = ws.pop();
+            int v = (int) (top >>> 32), e = (int) top;
+            int value = e / N, i = e % N;
+            if (potentials[value][i] != v) continue;
+
+            int x = i % MX, y = (i % (MX * MY)) / MX, z = i / (MX * MY);
+            for (Rule rule : rules) {
+                for (Rule.Tuple3 shift : rule.ishifts[value]) {
+                    int sx = x - shift.x(), sy = y - shift.y(), sz = z - shift.z();
+                    if (sx < 0 || sy < 0 || sz < 0 || sx + rule.IMX > MX || sy + rule.IMY > MY || sz + rule.IMZ > MZ) continue;
+
+                    int m = matchMaximum(rule, sx, sy, sz, potentials, null, 0, N, MX, MY);
+                    if (m < 0) continue;
+
+                    for (int dz = 0; dz < rule.IMZ; dz++) {
+                        for (int dy = 0; dy < rule.IMY; dy++) {
+                            for (int dx = 0; dx < rule.IMX; dx++) {
+                                byte o = rule.output[dx + dy * rule.IMX + dz * rule.IMX * rule.IMY];
+                                if (o == (byte) 0xff) continue;
+                                int[] potential = potentials[o];
+                                int j = sx + dx + (sy + dy) * MX + (sz + dz) * MX * MY;
+                                if (potential[j] == -1 || m + 1 < potential[j]) {
+                                    potential[j] = m + 1;
+                                    ws.push(((long) (m + 1) << 32) | (o * N + j));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Whether some match that reads no invalidated entry produces color o at cell j with the given parent potential
+    private static boolean supported(int o, int j, int value, int[][] parentPotentials, int[] invalid, int epoch,
+                                     int N, int MX, int MY, int MZ, Rule[] rules) {
+        int x = j % MX, y = (j % (MX * MY)) / MX, z = j / (MX * MY);
+        for (Rule rule : rules) {
+            for (Rule.Tuple3 shift : rule.oshifts[o]) {
+                if (rule.output[shift.x() + shift.y() * rule.IMX + shift.z() * rule.IMX * rule.IMY] != o) continue;
+                int sx = x - shift.x(), sy = y - shift.y(), sz = z - shift.z();
+                if (sx < 0 || sy < 0 || sz < 0 || sx + rule.IMX > MX || sy + rule.IMY > MY || sz + rule.IMZ > MZ) continue;
+                if (matchMaximum(rule, sx, sy, sz, parentPotentials, invalid, epoch, N, MX, MY) + 1 == value) return true;
+            }
+        }
+        return false;
+    }
+
+    // Largest input potential of a match, or -1 if an input is unreachable or, when invalid is given, invalidated
+    private static int matchMaximum(Rule rule, int x, int y, int z, int[][] potentials, int[] invalid, int epoch,
+                                    int N, int MX, int MY) {
+        int m = 0;
+        int dz = 0, dy = 0, dx = 0;
+        for (byte value : rule.binput) {
+            if (value != (byte) 0xff) {
+                int i = x + dx + (y + dy) * MX + (z + dz) * MX * MY;
+                int current = potentials[value][i];
+                if (current == -1 || (invalid != null && invalid[value * N + i] == epoch)) return -1;
+                if (current > m) m = current;
+            }
+
+            dx++;
+            if (dx == rule.IMX) {
+                dx = 0;
+                dy++;
+                if (dy == rule.IMY) {
+                    dy = 0;
+                    dz++;
+                }
+            }
+        }
+        return m;
+    }
+
     public static void computeBackwardPotentials(int[][] potentials, int[] future, int MX, int MY, int MZ, Rule[] rules) {
+        computeBackwardPotentials(potentials, future, MX, MY, MZ, rules, false);
+    }
+
+    // With concurrent set, colors are split into groups that no rule connects and each group is computed on
+    // its own thread. Potentials do not depend on the processing order within a level, so the result is the same.
+    public static void computeBackwardPotentials(int[][] potentials, int[] future, int MX, int MY, int MZ, Rule[] rules, boolean concurrent) {
         for (int c = 0; c < potentials.length; c++) {
             int[] potential = potentials[c];
             for (int i = 0; i < future.length; i++) {
                 potential[i] = (future[i] & (1 << c)) != 0 ? 0 : -1;
             }
         }
-        computePotentials(potentials, MX, MY, MZ, rules, true);
+
+        int[] components = concurrent ? components(potentials.length, rules, true) : null;
+        if (components == null || components.length < 2) {
+            computePotentials(potentials, MX, MY, MZ, rules, true, -1);
+        } else {
+            IntStream.range(0, components.length).parallel()
+                    .forEach(k -> computePotentials(potentials, MX, MY, MZ, rules, true, components[k]));
+        }
     }
-    
-    private static void computePotentials(int[][] potentials, int MX, int MY, int MZ, Rule[] rules, boolean backwards) {
-        Queue<ObservationQueueItem> queue = new LinkedList<>();
-        for (byte c = 0; c < potentials.length; c++) {
+
+    // Groups colors that are read, written or used as a trigger by a common rule. Returns one color mask per group.
+    static int[] components(int C, Rule[] rules, boolean backwards) {
+        int[] parent = new int[C];
+        for (int c = 0; c < C; c++) parent[c] = c;
+
+        for (Rule rule : rules) {
+            int colors = 0;
+            Rule.Tuple3[][] shifts = backwards ? rule.oshifts : rule.ishifts;
+            if (shifts == null) return null;
+            for (int c = 0; c < C; c++) {
+                if (shifts[c].length > 0) colors |= 1 << c;
+            }
+            for (byte value : rule.binput) if (value != (byte) 0xff) colors |= 1 << value;
+            for (byte value : rule.output) if (value != (byte) 0xff) colors |= 1 << value;
+
+            int first = -1;
+            for (int c = 0; c < C; c++) {
+                if ((colors & (1 << c)) == 0) continue;
+                if (first < 0) first = find(parent, c);
+                else parent[find(parent, c)] = first;
+            }
+        }
+
+        int[] masks = new int[C];
+        int count = 0;
+        int[] index = new int[C];
+        Arrays.fill(index, -1);
+        for (int c = 0; c < C; c++) {
+            int root = find(parent, c);
+            if (index[root] < 0) index[root] = count++;
+            masks[index[root]] |= 1 << c;
+        }
+        return Arrays.copyOf(masks, count);
+    }
+
+    private static int find(int[] parent, int c) {
+        while (parent[c] != c) c = parent[c] = parent[parent[c]];
+        return c;
+    }
+
+    // Queue entries are value * cells + i. Entries are appended with t + 1 while entries with t are processed,
+    // so the FIFO visits (value, cell) pairs in nondecreasing potential order, like a breadth-first search.
+    private static void computePotentials(int[][] potentials, int MX, int MY, int MZ, Rule[] rules, boolean backwards, int colors) {
+        int cells = potentials[0].length;
+        Workspace ws = WORKSPACE.get();
+        ws.prepare(rules.length * cells, cells);
+
+        for (int c = 0; c < potentials.length; c++) {
+            if ((colors & (1 << c)) == 0) continue;
             int[] potential = potentials[c];
             for (int i = 0; i < potential.length; i++) {
                 if (potential[i] == 0) {
-                    queue.offer(new ObservationQueueItem(c, i % MX, (i % (MX * MY)) / MX, i / (MX * MY)));
+                    ws.offer(c * cells + i);
                 }
             }
         }
-        
-        boolean[][] matchMask = AH.array2D(rules.length, potentials[0].length, false);
-        
-        while (!queue.isEmpty()) {
-            ObservationQueueItem item = queue.poll();
-            byte value = item.value;
-            int x = item.x, y = item.y, z = item.z;
-            int i = x + y * MX + z * MX * MY;
+
+        int[] mask = ws.mask;
+        int epoch = ws.epoch;
+
+        while (ws.size > 0) {
+            int entry = ws.poll();
+            int value = entry / cells, i = entry % cells;
+            int x = i % MX, y = (i % (MX * MY)) / MX, z = i / (MX * MY);
             int t = potentials[value][i];
-            
+
             for (int r = 0; r < rules.length; r++) {
-                boolean[] maskr = matchMask[r];
                 Rule rule = rules[r];
                 Rule.Tuple3[] shifts = backwards ? rule.oshifts[value] : rule.ishifts[value];
-                
+                int offset = r * cells;
+
                 for (Rule.Tuple3 shift : shifts) {
                     int sx = x - shift.x();
                     int sy = y - shift.y();
                     int sz = z - shift.z();
-                    
-                    if (sx < 0 || sy < 0 || sz < 0 || 
+
+                    if (sx < 0 || sy < 0 || sz < 0 ||
                         sx + rule.IMX > MX || sy + rule.IMY > MY || sz + rule.IMZ > MZ) {
                         continue;
                     }
-                    
+
                     int si = sx + sy * MX + sz * MX * MY;
-                    if (!maskr[si] && forwardMatches(rule, sx, sy, sz, potentials, t, MX, MY, backwards)) {
-                        maskr[si] = true;
-                        applyForward(rule, sx, sy, sz, potentials, t, MX, MY, queue, backwards);
+                    if (mask[offset + si] != epoch && forwardMatches(rule, sx, sy, sz, potentials, t, MX, MY, backwards)) {
+                        mask[offset + si] = epoch;
+                        applyForward(rule, sx, sy, sz, potentials, t, MX, MY, ws, cells, backwards);
                     }
                 }
             }
         }
     }
-    
+
     private static boolean forwardMatches(Rule rule, int x, int y, int z, int[][] potentials, int t, int MX, int MY, boolean backwards) {
         int dz = 0, dy = 0, dx = 0;
         byte[] a = backwards ? rule.output : rule.binput;
@@ -131,11 +359,11 @@ public class Observation {
         }
         return true;
     }
-    
-    private static void applyForward(Rule rule, int x, int y, int z, int[][] potentials, int t, int MX, int MY, 
-                                    Queue<ObservationQueueItem> q, boolean backwards) {
+
+    private static void applyForward(Rule rule, int x, int y, int z, int[][] potentials, int t, int MX, int MY,
+                                    Workspace q, int cells, boolean backwards) {
         byte[] a = backwards ? rule.binput : rule.output;
-        
+
         for (int dz = 0; dz < rule.IMZ; dz++) {
             int zdz = z + dz;
             for (int dy = 0; dy < rule.IMY; dy++) {
@@ -145,15 +373,106 @@ public class Observation {
                     int idi = xdx + ydy * MX + zdz * MX * MY;
                     int di = dx + dy * rule.IMX + dz * rule.IMX * rule.IMY;
                     byte o = a[di];
-                    
+
                     if (o != (byte) 0xff && potentials[o][idi] == -1) {
                         potentials[o][idi] = t + 1;
-                        q.offer(new ObservationQueueItem(o, xdx, ydy, zdz));
+                        q.offer(o * cells + idi);
                     }
                 }
             }
         }
     }
+
+    // Per-thread buffers reused across calls: a growable ring queue and a match mask stamped with an epoch,
+    // so that it never has to be cleared
+    private static final class Workspace {
+        int[] queue = new int[1024];
+        int head, size;
+        int[] mask = new int[0];
+        int epoch;
+
+        int[] cleared = new int[0], clearedList = new int[0];
+        int repairEpoch;
+        long[] heap = new long[1024];
+        int heapSize;
+
+        void prepareRepair(int entries) {
+            if (cleared.length < entries) {
+                cleared = new int[entries];
+                clearedList = new int[entries];
+                repairEpoch = 0;
+            }
+            if (++repairEpoch == Integer.MAX_VALUE) {
+                Arrays.fill(cleared, 0);
+                repairEpoch = 1;
+            }
+            heapSize = 0;
+        }
+
+        // Binary min-heap of value << 32 | entry
+        void push(long item) {
+            if (heapSize == heap.length) heap = Arrays.copyOf(heap, heap.length * 2);
+            int k = heapSize++;
+            while (k > 0) {
+                int parent = (k - 1) >> 1;
+                if (heap[parent] <= item) break;
+                heap[k] = heap[parent];
+                k = parent;
+            }
+            heap[k] = item;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--heapSize];
+            int k = 0;
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= last) break;
+                heap[k] = heap[child];
+                k = child;
+            }
+            heap[k] = last;
+            return top;
+        }
+
+        void prepare(int maskLength, int cells) {
+            if (mask.length < maskLength) {
+                mask = new int[maskLength];
+                epoch = 0;
+            }
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(mask, 0);
+                epoch = 1;
+            }
+            if (queue.length < cells) queue = new int[Integer.highestOneBit(cells - 1) << 1];
+            head = 0;
+            size = 0;
+        }
+
+        void offer(int entry) {
+            if (size == queue.length) {
+                int[] grown = new int[queue.length * 2];
+                int tail = queue.length - head;
+                System.arraycopy(queue, head, grown, 0, tail);
+                System.arraycopy(queue, 0, grown, tail, head);
+                queue = grown;
+                head = 0;
+            }
+            queue[(head + size++) & (queue.length - 1)] = entry;
+        }
+
+        int poll() {
+            int entry = queue[head];
+            head = (head + 1) & (queue.length - 1);
+            size--;
+            return entry;
+        }
+    }
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
     
     public static boolean isGoalReached(byte[] present, int[] future) {
         for (int i = 0; i < present.length; i++) {
@@ -197,7 +516,4 @@ public class Observation {
         }
         return sum;
     }
-
-    private record ObservationQueueItem(byte value, int x, int y, int z) {
-    }
 }
\ No newline at end of file
@@ -30,6 +30,7 @@ public class AllNode extends RuleNode {
                 for (int dx = 0; dx < rule.OMX; dx++) {
                     byte value = rule.output[dx + dy * rule.OMX + dz * rule.OMX * rule.OMY];
                     if (value != (byte) 0xff && newstate[x + dx + (y + dy) * MX + (z + dz) * MX * MY]) {
+                        metrics.rejected++;
                         return;
                     }
                 }
@@ -37,6 +38,7 @@ public class AllNode extends RuleNode {
         }
         
         last[r] = true;
+        metrics.applications[r]++;
         for (int dz = 0; dz < rule.OMZ; dz++) {
             for (int dy = 0; dy < rule.OMY; dy++) {
                 for (int dx = 0; dx < rule.OMX; dx++) {
@@ -44,7 +44,9 @@ public abstract class Branch extends Node {
             if (node instanceof Branch) {
                 ip.current = (Branch) node;
             }
-            if (node.go()) {
+            boolean success = node.step();
+            metrics.nanos -= node.metrics.elapsed;
+            if (success) {
                 return true;
             }
         }
@@ -6,10 +6,14 @@ import com.jxon.juscore.mjcore.*;
 import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.utils.Graphics;
 import com.jxon.juscore.mjcore.utils.Helper;
+import com.jxon.juscore.mjcore.utils.PatternCache;
 import com.jxon.juscore.mjcore.utils.SymmetryHelper;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
 public class ConvChainNode extends Node {
@@ -35,6 +39,24 @@ public class ConvChainNode extends Node {
         String name = XMLHelper.get(element, "sample");
         String filename = "resources/samples/" + name + ".png";
 
+        N = XMLHelper.get(element, "n", 3);
+        steps = XMLHelper.get(element, "steps", -1);
+        temperature = XMLHelper.get(element, "temperature", 1.0);
+        c0 = grid.values.get(XMLHelper.get(element, "black", Character.class));
+        c1 = grid.values.get(XMLHelper.get(element, "white", Character.class));
+        substrateColor = grid.values.get(XMLHelper.get(element, "on", Character.class));
+
+        substrate = new boolean[grid.state.length];
+
+        String cacheKey = PatternCache.key(filename, "convchain", N, Arrays.toString(symmetry));
+        if (!PatternCache.load(cacheKey, this::readTables)) {
+            if (!extractWeights(filename, symmetry)) return false;
+            PatternCache.save(cacheKey, this::writeTables);
+        }
+        return true;
+    }
+
+    private boolean extractWeights(String filename, boolean[] symmetry) {
         Graphics.LoadBitmapResult bitmapResult = Graphics.loadBitmap(filename);
         if (bitmapResult.data() == null) {
             Interpreter.writeLine("couldn't load ConvChain sample " + filename);
@@ -55,15 +77,6 @@ public class ConvChainNode extends Node {
             sample[i] = (r + g + b) > 128 * 3; // Consider bright pixels as true
         }
 
-        N = XMLHelper.get(element, "n", 3);
-        steps = XMLHelper.get(element, "steps", -1);
-        temperature = XMLHelper.get(element, "temperature", 1.0);
-        c0 = grid.values.get(XMLHelper.get(element, "black", Character.class));
-        c1 = grid.values.get(XMLHelper.get(element, "white", Character.class));
-        substrateColor = grid.values.get(XMLHelper.get(element, "on", Character.class));
-
-        substrate = new boolean[grid.state.length];
-
         weights = new double[1 << (N * N)];
         for (int y = 0; y < SMY; y++) {
             for (int x = 0; x < SMX; x++) {
@@ -88,8 +101,29 @@ public class ConvChainNode extends Node {
         return true;
     }
 
+    private void writeTables(DataOutputStream out) throws IOException {
+        out.writeInt(SMX);
+        out.writeInt(SMY);
+        byte[] bits = new byte[(sample.length + 7) / 8];
+        for (int i = 0; i < sample.length; i++) if (sample[i]) bits[i >> 3] |= (byte) (1 << (i & 7));
+        out.write(bits);
+        for (double w : weights) out.writeDouble(w);
+    }
+
+    private void readTables(DataInputStream in) throws IOException {
+        SMX = in.readInt();
+        SMY = in.readInt();
+        byte[] bits = new byte[(SMX * SMY + 7) / 8];
+        in.readFully(bits);
+        sample = new boolean[SMX * SMY];
+        for (int i = 0; i < sample.length; i++) sample[i] = (bits[i >> 3] & (1 << (i & 7))) != 0;
+        weights = new double[1 << (N * N)];
+        for (int k = 0; k < weights.length; k++) weights[k] = in.readDouble();
+    }
+
     private void toggle(byte[] state, int i) {
         state[i] = state[i] == c0 ? c1 : c0;
+        metrics.changed++;
     }
 
     @Override
@@ -105,7 +139,10 @@ public class ConvChainNode extends Node {
             boolean anySubstrate = false;
             for (int i = 0; i < substrate.length; i++) {
                 if (state[i] == substrateColor) {
-                    state[i] = ip.random.nextInt(2) == 0 ? c0 : c1;
+                    boolean zero = ip.cellRandom != null ? ip.cellRandom.nextInt(2, ip.counter, i, 0, id) == 0
+                                                         : ip.random.nextInt(2) == 0;
+                    state[i] = zero ? c0 : c1;
+                    metrics.changed++;
                     substrate[i] = true;
                     anySubstrate = true;
                 }
@@ -115,7 +152,10 @@ public class ConvChainNode extends Node {
         }
 
         for (int k = 0; k < state.length; k++) {
-            int r = ip.random.nextInt(state.length);
+            // With counter-based draws the k-th site and its acceptance are fixed by k; the sweep itself stays
+            // sequential, since every update sees the ones before it
+            int r = ip.cellRandom != null ? ip.cellRandom.nextInt(state.length, ip.counter, k, 0, id)
+                                          : ip.random.nextInt(state.length);
             if (!substrate[r]) {
                 continue;
             }
@@ -156,7 +196,8 @@ public class ConvChainNode extends Node {
             if (temperature != 1) {
                 q = Math.pow(q, 1.0 / temperature);
             }
-            if (q > ip.random.nextDouble()) {
+            double u = ip.cellRandom != null ? ip.cellRandom.uniform(ip.counter, k, 1, id) : ip.random.nextDouble();
+            if (q > u) {
                 toggle(state, r);
             }
         }
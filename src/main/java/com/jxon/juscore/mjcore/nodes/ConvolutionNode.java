@@ -127,9 +127,9 @@ public class ConvolutionNode extends Node {
         for (int i = 0; i < sumfield.length; i++) {
             int[] sums = sumfield[i];
             byte input = grid.state[i];
-            for (ConvolutionRule rule : rules) {
-                if (input == rule.input && rule.output != grid.state[i] &&
-                        (rule.p == 1.0 || ip.random.nextInt() < rule.p * Integer.MAX_VALUE)) {
+            for (int k = 0; k < rules.length; k++) {
+                ConvolutionRule rule = rules[k];
+                if (input == rule.input && rule.output != grid.state[i] && (rule.p == 1.0 || chance(rule.p, i, k))) {
                     boolean success = true;
                     if (rule.sums != null) {
                         int sum = 0;
@@ -140,6 +140,7 @@ public class ConvolutionNode extends Node {
                     }
                     if (success) {
                         grid.state[i] = rule.output;
+                        metrics.changed++;
                         change = true;
                         break;
                     }
@@ -151,6 +152,11 @@ public class ConvolutionNode extends Node {
         return change;
     }
     
+    private boolean chance(double p, int i, int k) {
+        if (ip.cellRandom != null) return ip.cellRandom.uniform(ip.counter, i, k, id) < p;
+        return ip.random.nextInt() < p * Integer.MAX_VALUE;
+    }
+
     private static class ConvolutionRule {
         public byte input, output;
         public byte[] values;
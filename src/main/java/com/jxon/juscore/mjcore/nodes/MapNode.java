@@ -9,7 +9,9 @@ import com.jxon.juscore.mjcore.utils.SymmetryHelper;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 public class MapNode extends Branch {
     public Grid newgrid;
@@ -129,17 +131,25 @@ public class MapNode extends Branch {
             return super.go();
         }
         
+        buildColorIndex();
+        int[][] origins = new int[rules.length][];
+        IntStream indices = IntStream.range(0, rules.length);
+        if ((long) rules.length * grid.state.length >= PARALLEL_THRESHOLD) {
+            indices = indices.parallel();
+        }
+        indices.forEach(r -> origins[r] = matchOrigins(rules[r]));
+        if (metrics.applications.length != rules.length) metrics.applications = new long[rules.length];
+        
+        // Writes of later rules and later positions win, as in a scan over rules and then cells
         newgrid.clear();
-        for (Rule rule : rules) {
-            for (int z = 0; z < grid.MZ; z++) {
-                for (int y = 0; y < grid.MY; y++) {
-                    for (int x = 0; x < grid.MX; x++) {
-                        if (matches(rule, x, y, z, grid.state, grid.MX, grid.MY, grid.MZ)) {
-                            apply(rule, x * NX / DX, y * NY / DY, z * NZ / DZ, 
-                                 newgrid.state, newgrid.MX, newgrid.MY, newgrid.MZ);
-                        }
-                    }
-                }
+        int MX = grid.MX, MY = grid.MY;
+        for (int r = 0; r < rules.length; r++) {
+            metrics.found += origins[r].length;
+            metrics.applications[r] += origins[r].length;
+            for (int i : origins[r]) {
+                int x = i % MX, y = (i % (MX * MY)) / MX, z = i / (MX * MY);
+                apply(rules[r], x * NX / DX, y * NY / DY, z * NZ / DZ,
+                     newgrid.state, newgrid.MX, newgrid.MY, newgrid.MZ);
             }
         }
         
@@ -148,6 +158,79 @@ public class MapNode extends Branch {
         return true;
     }
     
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    
+    // Cells of the source grid by color: colorCells[colorStart[c]..colorStart[c+1]) in increasing order
+    private int[] colorStart, colorCells;
+    
+    private void buildColorIndex() {
+        int N = grid.state.length;
+        if (colorCells == null || colorCells.length != N) {
+            colorStart = new int[grid.C + 1];
+            colorCells = new int[N];
+        }
+        Arrays.fill(colorStart, 0);
+        for (byte value : grid.state) colorStart[value + 1]++;
+        for (int c = 0; c < grid.C; c++) colorStart[c + 1] += colorStart[c];
+        int[] fill = Arrays.copyOf(colorStart, grid.C);
+        for (int i = 0; i < N; i++) colorCells[fill[grid.state[i]]++] = i;
+    }
+    
+    // Sorted positions where the rule matches. Only cells whose color fits the input position with the fewest
+    // such cells are tried as anchors.
+    private int[] matchOrigins(Rule rule) {
+        int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
+        int wildcard = (1 << grid.C) - 1;
+        int anchor = -1, fewest = Integer.MAX_VALUE;
+        for (int di = 0; di < rule.input.length; di++) {
+            int wave = rule.input[di];
+            if ((wave & wildcard) == wildcard) continue;
+            int count = 0;
+            for (int c = 0; c < grid.C; c++) {
+                if ((wave & (1 << c)) != 0) count += colorStart[c + 1] - colorStart[c];
+            }
+            if (count < fewest) {
+                fewest = count;
+                anchor = di;
+            }
+        }
+        
+        int[] result = new int[16];
+        int size = 0;
+        if (anchor < 0) {
+            for (int z = 0; z < MZ; z++) {
+                for (int y = 0; y < MY; y++) {
+                    for (int x = 0; x < MX; x++) {
+                        if (matches(rule, x, y, z, grid.state, MX, MY, MZ)) {
+                            if (size == result.length) result = Arrays.copyOf(result, size * 2);
+                            result[size++] = x + y * MX + z * MX * MY;
+                        }
+                    }
+                }
+            }
+            return Arrays.copyOf(result, size);
+        }
+        
+        int ax = anchor % rule.IMX, ay = (anchor / rule.IMX) % rule.IMY, az = anchor / (rule.IMX * rule.IMY);
+        int wave = rule.input[anchor];
+        for (int c = 0; c < grid.C; c++) {
+            if ((wave & (1 << c)) == 0) continue;
+            for (int k = colorStart[c]; k < colorStart[c + 1]; k++) {
+                int i = colorCells[k];
+                int x = Math.floorMod(i % MX - ax, MX);
+                int y = Math.floorMod((i % (MX * MY)) / MX - ay, MY);
+                int z = Math.floorMod(i / (MX * MY) - az, MZ);
+                if (matches(rule, x, y, z, grid.state, MX, MY, MZ)) {
+                    if (size == result.length) result = Arrays.copyOf(result, size * 2);
+                    result[size++] = x + y * MX + z * MX * MY;
+                }
+            }
+        }
+        result = Arrays.copyOf(result, size);
+        Arrays.sort(result);
+        return result;
+    }
+    
     @Override
     public void reset() {
         super.reset();
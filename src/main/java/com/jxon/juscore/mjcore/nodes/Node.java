@@ -4,6 +4,7 @@ package com.jxon.juscore.mjcore.nodes;
 
 import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.Interpreter;
+import com.jxon.juscore.mjcore.utils.Events;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
 import java.util.Arrays;
@@ -15,6 +16,9 @@ public abstract class Node {
     
     protected Interpreter ip;
     public Grid grid;
+    final NodeMetrics metrics = new NodeMetrics();
+    // Creation order within the interpreter, the last counter word of Interpreter.cellRandom draws
+    protected int id;
     
     private static final String[] NODE_NAMES = {
         "one", "all", "prl", "markov", "sequence", "path", "map", 
@@ -74,6 +78,8 @@ public abstract class Node {
         
         result.ip = ip;
         result.grid = grid;
+        result.id = ip.nodeCount++;
+        result.metrics.line = XMLHelper.getLineNumber(element);
         boolean success = result.load(element, symmetry, grid);
         
         if (!success) {
@@ -81,4 +87,32 @@ public abstract class Node {
         }
         return result;
     }
+
+    // Runs go() and counts it in metrics. Cells changed are counted here for leaf nodes; nodes that write the
+    // grid without recording changes count them themselves.
+    public final boolean step() {
+        Events.NodeStep event = new Events.NodeStep();
+        event.begin();
+        metrics.invocations++;
+        int before = ip.changes.size();
+        boolean result;
+        if (ip.timing) {
+            long start = System.nanoTime();
+            result = go();
+            metrics.elapsed = System.nanoTime() - start;
+            metrics.nanos += metrics.elapsed;
+        } else {
+            result = go();
+        }
+        if (!(this instanceof Branch)) metrics.changed += ip.changes.size() - before;
+        event.end();
+        if (event.shouldCommit()) {
+            event.describe(ip.name, grid.MX, grid.MY, grid.MZ, ip.seed, ip.counter);
+            event.node = getClass().getSimpleName();
+            event.line = metrics.line;
+            event.progress = result;
+            event.commit();
+        }
+        return result;
+    }
 }
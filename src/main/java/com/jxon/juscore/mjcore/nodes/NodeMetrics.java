@@ -0,0 +1,79 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.nodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Counters collected for one node while the interpreter runs. Only plain field increments happen on the hot
+// paths; wall time is measured only when Interpreter.timing is set. Counters are cleared at the start of every
+// run and read back through Interpreter.metrics().
+public final class NodeMetrics {
+    private static final long[] NONE = new long[0];
+
+    int line = -1;
+    long invocations, nanos, elapsed;
+    long found, rejected, changed;
+    long[] applications = NONE;
+    long bans, propagations, contradictions;
+
+    NodeMetrics() {}
+
+    void clear() {
+        invocations = nanos = elapsed = 0;
+        found = rejected = changed = 0;
+        Arrays.fill(applications, 0);
+        bans = propagations = contradictions = 0;
+    }
+
+    // Values of one node after a run. path lists the child indices from the root, nanos is the time spent in the
+    // node itself, not counting its children, and is 0 unless timing was on. applications[r] counts applications
+    // of rule r, indexed like RuleNode.rules, that is, after symmetries.
+    public record Snapshot(String path, String type, int line, long invocations, long nanos,
+                           long matchesFound, long matchesRejected, long[] applications, long cellsChanged,
+                           long bans, long propagations, long contradictions) {
+        public Snapshot {
+            applications = applications.clone();
+        }
+
+        @Override
+        public long[] applications() {
+            return applications.clone();
+        }
+
+        @Override
+        public String toString() {
+            return path + " " + type + (line >= 0 ? " (line " + line + ")" : "") + ": " + invocations + " calls, " +
+                    nanos / 1000000 + " ms, matches " + matchesFound + "/" + matchesRejected + ", applications " +
+                    Arrays.toString(applications) + ", cells " + cellsChanged + ", bans " + bans + ", propagations " +
+                    propagations + ", contradictions " + contradictions;
+        }
+    }
+
+    Snapshot snapshot(String path, Node node) {
+        return new Snapshot(path, node.getClass().getSimpleName(), line, invocations, nanos, found, rejected,
+                applications, changed, bans, propagations, contradictions);
+    }
+
+    public static void clear(Node node) {
+        node.metrics.clear();
+        if (node instanceof Branch branch) {
+            for (Node child : branch.nodes) clear(child);
+        }
+    }
+
+    // Snapshots of a node and all its descendants in depth-first order
+    public static List<Snapshot> collect(Node root) {
+        List<Snapshot> result = new ArrayList<>();
+        collect(root, "0", result);
+        return result;
+    }
+
+    private static void collect(Node node, String path, List<Snapshot> result) {
+        result.add(node.metrics.snapshot(path, node));
+        if (node instanceof Branch branch) {
+            for (int k = 0; k < branch.nodes.length; k++) collect(branch.nodes[k], path + "/" + k, result);
+        }
+    }
+}
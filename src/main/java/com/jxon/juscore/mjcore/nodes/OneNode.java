@@ -7,6 +7,7 @@ import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.models.Observation;
 import com.jxon.juscore.mjcore.models.Rule;
 import com.jxon.juscore.mjcore.utils.AH;
+import com.jxon.juscore.mjcore.utils.Rng;
 import org.w3c.dom.Element;
 import java.util.ArrayList;
 
@@ -75,13 +76,14 @@ public class OneNode extends RuleNode {
             return false;
         } else {
             last[result.r] = true;
+            metrics.applications[result.r]++;
             apply(rules[result.r], result.x, result.y, result.z);
             counter++;
             return true;
         }
     }
     
-    private RandomMatchResult randomMatch(java.util.Random random) {
+    private RandomMatchResult randomMatch(Rng random) {
         if (potentials != null) {
             if (observations != null && Observation.isGoalReached(grid.state, future)) {
                 futureComputed = false;
@@ -100,6 +102,7 @@ public class OneNode extends RuleNode {
                 int i = x + y * grid.MX + z * grid.MX * grid.MY;
                 
                 if (!grid.matches(rules[r], x, y, z)) {
+                    metrics.rejected++;
                     matchMask[r][i] = false;
                     matches.set(k, matches.get(matchCount - 1));
                     matchCount--;
@@ -146,6 +149,7 @@ public class OneNode extends RuleNode {
                 if (grid.matches(rules[r], x, y, z)) {
                     return new RandomMatchResult(r, x, y, z);
                 }
+                metrics.rejected++;
             }
             return new RandomMatchResult(-1, -1, -1, -1);
         }
@@ -4,18 +4,31 @@ package com.jxon.juscore.mjcore.nodes;
 
 import com.jxon.juscore.mjcore.Interpreter;
 import com.jxon.juscore.mjcore.models.Grid;
-import com.jxon.juscore.mjcore.utils.AH;
 import com.jxon.juscore.mjcore.utils.Graphics;
 import com.jxon.juscore.mjcore.utils.Helper;
+import com.jxon.juscore.mjcore.utils.Log;
+import com.jxon.juscore.mjcore.utils.PatternCache;
 import com.jxon.juscore.mjcore.utils.SymmetryHelper;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 public class OverlapNode extends WFCNode {
+    private static final long INDEX_MASK = 0xFFFFFFL;
+
     private byte[][] patterns;
+    private int C;
+
+    private int[] votes, dirtyCells;
+    private boolean[] dirty;
+    private int dirtyCount;
+    private boolean votesValid;
 
     @Override
     protected boolean load(Element element, boolean[] parentSymmetry, Grid grid) {
@@ -40,7 +53,52 @@ public class OverlapNode extends WFCNode {
         periodic = true;
 
         name = XMLHelper.get(element, "sample");
-        Graphics.LoadBitmapResult bitmapResult = Graphics.loadBitmap("resources/samples/" + name + ".png");
+        String filename = "resources/samples/" + name + ".png";
+
+        int ymax = periodicInput ? grid.MY : grid.MY - N + 1;
+        int xmax = periodicInput ? grid.MX : grid.MX - N + 1;
+
+        String cacheKey = PatternCache.key(filename, "overlap", N, Arrays.toString(symmetry), periodicInput, xmax, ymax);
+        if (!PatternCache.load(cacheKey, this::readTables)) {
+            if (!extractPatterns(filename, symmetry, xmax, ymax)) return false;
+            PatternCache.save(cacheKey, this::writeTables);
+        }
+
+        if (C > newgrid.C) {
+            Interpreter.writeLine("there were more than " + newgrid.C + " colors in the sample");
+            return false;
+        }
+
+        // Initialize map
+        map = new HashMap<>();
+        List<Element> ruleElements = XMLHelper.getDirectChildElements(element, "rule");
+        for (Element ruleElement : ruleElements) {
+            char input = XMLHelper.get(ruleElement, "in", Character.class);
+            String[] outputs = XMLHelper.get(ruleElement, "out").split("\\|");
+            boolean[] position = new boolean[P];
+
+            for (String outputStr : outputs) {
+                byte outputValue = newgrid.values.get(outputStr.charAt(0));
+                for (int t = 0; t < P; t++) {
+                    if (patterns[t][0] == outputValue) {
+                        position[t] = true;
+                    }
+                }
+            }
+            map.put(grid.values.get(input), position);
+        }
+
+        if (!map.containsKey((byte) 0)) {
+            boolean[] allTrue = new boolean[P];
+            Arrays.fill(allTrue, true);
+            map.put((byte) 0, allTrue);
+        }
+
+        return super.load(element, parentSymmetry, grid);
+    }
+
+    private boolean extractPatterns(String filename, boolean[] symmetry, int xmax, int ymax) {
+        Graphics.LoadBitmapResult bitmapResult = Graphics.loadBitmap(filename);
         if (bitmapResult.data() == null) {
             Interpreter.writeLine("couldn't read sample " + name);
             return false;
@@ -52,12 +110,7 @@ public class OverlapNode extends WFCNode {
 
         Helper.OrdsResult ordsResult = Helper.ords(bitmap);
         byte[] sample = ordsResult.result();
-        int C = ordsResult.count();
-
-        if (C > newgrid.C) {
-            Interpreter.writeLine("there were more than " + newgrid.C + " colors in the sample");
-            return false;
-        }
+        C = ordsResult.count();
 
         long W = Helper.power(C, N * N);
 
@@ -81,9 +134,6 @@ public class OverlapNode extends WFCNode {
         Map<Long, Integer> weights = new HashMap<>();
         List<Long> ordering = new ArrayList<>();
 
-        int ymax = periodicInput ? grid.MY : grid.MY - N + 1;
-        int xmax = periodicInput ? grid.MX : grid.MX - N + 1;
-
         for (int y = 0; y < ymax; y++) {
             for (int x = 0; x < xmax; x++) {
                 final int fx = x, fy = y;
@@ -107,7 +157,7 @@ public class OverlapNode extends WFCNode {
         }
 
         P = weights.size();
-        System.out.println("number of patterns P = " + P);
+        Log.debug("number of patterns P = {}", P);
 
         patterns = new byte[P][];
         this.weights = new double[P];
@@ -118,69 +168,133 @@ public class OverlapNode extends WFCNode {
             counter++;
         }
 
-        // Function to check if patterns agree
-        Function3<byte[], byte[], Integer, Integer, Boolean> agrees = (p1, p2, dx, dy) -> {
-            int xmin = dx < 0 ? 0 : dx;
-            int xmax2 = dx < 0 ? dx + N : N;
-            int ymin = dy < 0 ? 0 : dy;
-            int ymax2 = dy < 0 ? dy + N : N;
+        propagator = new int[4][][];
+        IntStream.range(0, 4).parallel().forEach(d -> propagator[d] = agreeingPatterns(DX[d], DY[d]));
+        return true;
+    }
 
-            for (int y = ymin; y < ymax2; y++) {
-                for (int x = xmin; x < xmax2; x++) {
-                    if (p1[x + N * y] != p2[x - dx + N * (y - dy)]) {
-                        return false;
-                    }
-                }
+    private void writeTables(DataOutputStream out) throws IOException {
+        out.writeInt(C);
+        out.writeInt(P);
+        for (int t = 0; t < P; t++) {
+            out.write(patterns[t]);
+            out.writeDouble(weights[t]);
+        }
+        for (int[][] rows : propagator) {
+            for (int[] row : rows) {
+                out.writeInt(row.length);
+                for (int t2 : row) out.writeInt(t2);
             }
-            return true;
-        };
+        }
+    }
 
-        propagator = new int[4][][];
-        for (int d = 0; d < 4; d++) {
-            propagator[d] = new int[P][];
+    private void readTables(DataInputStream in) throws IOException {
+        C = in.readInt();
+        P = in.readInt();
+        patterns = new byte[P][N * N];
+        weights = new double[P];
+        for (int t = 0; t < P; t++) {
+            in.readFully(patterns[t]);
+            weights[t] = in.readDouble();
+        }
+        propagator = new int[4][P][];
+        for (int[][] rows : propagator) {
             for (int t = 0; t < P; t++) {
-                List<Integer> list = new ArrayList<>();
-                for (int t2 = 0; t2 < P; t2++) {
-                    if (agrees.apply(patterns[t], patterns[t2], DX[d], DY[d])) {
-                        list.add(t2);
-                    }
-                }
-                propagator[d][t] = list.stream().mapToInt(Integer::intValue).toArray();
+                rows[t] = new int[in.readInt()];
+                for (int k = 0; k < rows[t].length; k++) rows[t][k] = in.readInt();
             }
         }
+    }
 
-        // Initialize map
-        map = new HashMap<>();
-        List<Element> ruleElements = XMLHelper.getDirectChildElements(element, "rule");
-        for (Element ruleElement : ruleElements) {
-            char input = XMLHelper.get(ruleElement, "in", Character.class);
-            String[] outputs = XMLHelper.get(ruleElement, "out").split("\\|");
-            boolean[] position = new boolean[P];
+    // Patterns that agree in direction (dx, dy) have equal overlapping strips, so candidates are looked up
+    // by a strip hash in a sorted table instead of testing all P^2 pairs. Hash collisions are filtered
+    // out by agrees(), and the candidate lists stay sorted by pattern index.
+    private int[][] agreeingPatterns(int dx, int dy) {
+        int xmin = dx < 0 ? 0 : dx, xmax = dx < 0 ? dx + N : N;
+        int ymin = dy < 0 ? 0 : dy, ymax = dy < 0 ? dy + N : N;
 
-            for (String outputStr : outputs) {
-                byte outputValue = newgrid.values.get(outputStr.charAt(0));
-                for (int t = 0; t < P; t++) {
-                    if (patterns[t][0] == outputValue) {
-                        position[t] = true;
-                    }
+        long[] table = new long[P];
+        for (int t2 = 0; t2 < P; t2++) {
+            table[t2] = (stripHash(patterns[t2], xmin - dx, xmax - dx, ymin - dy, ymax - dy) & ~INDEX_MASK) | t2;
+        }
+        Arrays.sort(table);
+
+        int[][] result = new int[P][];
+        int[] buffer = new int[P];
+        for (int t = 0; t < P; t++) {
+            long key = stripHash(patterns[t], xmin, xmax, ymin, ymax) & ~INDEX_MASK;
+            int k = Arrays.binarySearch(table, key);
+            if (k < 0) k = -k - 1;
+
+            int count = 0;
+            for (; k < P && (table[k] & ~INDEX_MASK) == key; k++) {
+                int t2 = (int) (table[k] & INDEX_MASK);
+                if (agrees(patterns[t], patterns[t2], dx, dy)) {
+                    buffer[count++] = t2;
                 }
             }
-            map.put(grid.values.get(input), position);
+            result[t] = Arrays.copyOf(buffer, count);
         }
+        return result;
+    }
 
-        if (!map.containsKey((byte) 0)) {
-            boolean[] allTrue = new boolean[P];
-            Arrays.fill(allTrue, true);
-            map.put((byte) 0, allTrue);
+    private long stripHash(byte[] p, int xmin, int xmax, int ymin, int ymax) {
+        long h = 0;
+        for (int y = ymin; y < ymax; y++) {
+            for (int x = xmin; x < xmax; x++) {
+                h = (h + p[x + N * y] + 1) * 0x9E3779B97F4A7C15L;
+            }
         }
+        return h ^ (h >>> 29);
+    }
 
-        return super.load(element, parentSymmetry, grid);
+    private boolean agrees(byte[] p1, byte[] p2, int dx, int dy) {
+        int xmin = dx < 0 ? 0 : dx;
+        int xmax = dx < 0 ? dx + N : N;
+        int ymin = dy < 0 ? 0 : dy;
+        int ymax = dy < 0 ? dy + N : N;
+
+        for (int y = ymin; y < ymax; y++) {
+            for (int x = xmin; x < xmax; x++) {
+                if (p1[x + N * y] != p2[x - dx + N * (y - dy)]) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
+    // Votes are kept per output cell in a flat [cell * C + color] table. Once counted, they are
+    // decremented as patterns get banned, and only cells whose votes changed are re-evaluated.
     @Override
     protected void updateState() {
-        int MX = newgrid.MX, MY = newgrid.MY;
-        int[][] votes = AH.array2D(newgrid.state.length, newgrid.C, 0);
+        int C = newgrid.C;
+        if (!votesValid) {
+            countVotes();
+            for (int i = 0; i < newgrid.state.length; i++) {
+                newgrid.state[i] = argmaxVote(i * C, C);
+            }
+        } else {
+            for (int k = 0; k < dirtyCount; k++) {
+                int i = dirtyCells[k];
+                dirty[i] = false;
+                newgrid.state[i] = argmaxVote(i * C, C);
+            }
+        }
+        dirtyCount = 0;
+        votesValid = ip.gif;
+    }
+
+    private void countVotes() {
+        int MX = newgrid.MX, MY = newgrid.MY, C = newgrid.C;
+        if (votes == null) {
+            votes = new int[newgrid.state.length * C];
+            dirty = new boolean[newgrid.state.length];
+            dirtyCells = new int[newgrid.state.length];
+        } else {
+            Arrays.fill(votes, 0);
+            Arrays.fill(dirty, false);
+        }
 
         for (int i = 0; i < wave.data.length; i++) {
             boolean[] w = wave.data[i];
@@ -197,33 +311,56 @@ public class OverlapNode extends WFCNode {
                             int xdx = x + dx;
                             if (xdx >= MX) xdx -= MX;
 
-                            byte value = pattern[dx + dy * N];
-                            votes[xdx + ydy * MX][value]++;
+                            votes[(xdx + ydy * MX) * C + pattern[dx + dy * N]]++;
                         }
                     }
                 }
             }
         }
+    }
+
+    private byte argmaxVote(int offset, int C) {
+        double max = -1.0;
+        byte argmax = (byte) 0xff;
+        for (byte c = 0; c < C; c++) {
+            double value = votes[offset + c] + 0.1 * noise.nextDouble();
+            if (value > max) {
+                argmax = c;
+                max = value;
+            }
+        }
+        return argmax;
+    }
 
-        Random r = new Random();
-        for (int i = 0; i < votes.length; i++) {
-            double max = -1.0;
-            byte argmax = (byte) 0xff;
-            int[] v = votes[i];
+    @Override
+    protected void banned(int i, int t) {
+        if (!votesValid) {
+            return;
+        }
 
-            for (byte c = 0; c < v.length; c++) {
-                double value = v[c] + 0.1 * r.nextDouble();
-                if (value > max) {
-                    argmax = c;
-                    max = value;
+        int MX = newgrid.MX, MY = newgrid.MY, C = newgrid.C;
+        int x = i % MX, y = i / MX;
+        byte[] pattern = patterns[t];
+        for (int dy = 0; dy < N; dy++) {
+            int ydy = y + dy;
+            if (ydy >= MY) ydy -= MY;
+
+            for (int dx = 0; dx < N; dx++) {
+                int xdx = x + dx;
+                if (xdx >= MX) xdx -= MX;
+
+                int cell = xdx + ydy * MX;
+                votes[cell * C + pattern[dx + dy * N]]--;
+                if (!dirty[cell]) {
+                    dirty[cell] = true;
+                    dirtyCells[dirtyCount++] = cell;
                 }
             }
-            newgrid.state[i] = argmax;
         }
     }
 
-    @FunctionalInterface
-    private interface Function3<T, U, V, W, R> {
-        R apply(T t, U u, V v, W w);
+    @Override
+    protected void waveReset() {
+        votesValid = false;
     }
-}
\ No newline at end of file
+}
@@ -21,12 +21,16 @@ public class ParallelNode extends RuleNode {
     @Override
     protected void add(int r, int x, int y, int z, boolean[] maskr) {
         Rule rule = rules[r];
-        if (ip.random.nextDouble() > rule.p) {
+        int MX = grid.MX, MY = grid.MY;
+        double u = ip.cellRandom != null ? ip.cellRandom.uniform(ip.counter, x + y * MX + z * MX * MY, r, id)
+                                         : ip.random.nextDouble();
+        if (u > rule.p) {
+            metrics.rejected++;
             return;
         }
         
         last[r] = true;
-        int MX = grid.MX, MY = grid.MY;
+        metrics.applications[r]++;
         
         for (int dz = 0; dz < rule.OMZ; dz++) {
             for (int dy = 0; dy < rule.OMY; dy++) {
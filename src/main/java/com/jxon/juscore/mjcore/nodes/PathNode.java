@@ -4,20 +4,19 @@ package com.jxon.juscore.mjcore.nodes;
 
 import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.models.Rule;
-import com.jxon.juscore.mjcore.utils.AH;
-import com.jxon.juscore.mjcore.utils.RandomHelper;
+import com.jxon.juscore.mjcore.utils.Log;
+import com.jxon.juscore.mjcore.utils.Rng;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
-import java.util.Random;
 
 public class PathNode extends Node {
     public int start, finish, substrate;
     public byte value;
     private boolean inertia, longest, edges, vertices;
+    private int paths;
     
     @Override
     protected boolean load(Element element, boolean[] parentSymmetry, Grid grid) {
@@ -30,155 +29,348 @@ public class PathNode extends Node {
         edges = XMLHelper.get(element, "edges", false);
         vertices = XMLHelper.get(element, "vertices", false);
         substrate = grid.wave(XMLHelper.get(element, "on"));
+        paths = XMLHelper.get(element, "paths", 1);
         return true;
     }
     
     @Override
     public void reset() {}
     
+    // Unit steps along the axes, in the order the candidates of a step are listed
+    private static final int[][] AXES = {{-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}};
+    private static final int[][] PLANE_DIAGONALS = {{-1, -1, 0}, {-1, 1, 0}, {1, -1, 0}, {1, 1, 0}};
+    private static final int[][] SPACE_DIAGONALS = {{-1, 0, -1}, {-1, 0, 1}, {1, 0, -1}, {1, 0, 1},
+            {0, -1, -1}, {0, -1, 1}, {0, 1, -1}, {0, 1, 1}};
+    private static final int[][] CORNERS = {{-1, -1, -1}, {-1, -1, 1}, {-1, 1, -1}, {-1, 1, 1},
+            {1, -1, -1}, {1, -1, 1}, {1, 1, -1}, {1, 1, 1}};
+    private static final int[] NONE = {-1, -1, -1};
+    
+    // Buffers reused across calls. A cell has a generation in the current call only if its stamp equals epoch.
+    private int[][] directions;
+    private int[] generations, stamps, queue, starts, candidates;
+    private int epoch;
+    // Used by batches of several paths: cells invalidated by the latest repair carry repairStamp
+    private int[] invalid, drawn;
+    private int repairStamp;
+    private long[] heap;
+    private int heapSize;
+    
+    private int generation(int i) {
+        return stamps[i] == epoch ? generations[i] : -1;
+    }
+    
+    private void setGeneration(int i, int t) {
+        stamps[i] = epoch;
+        generations[i] = t;
+    }
+    
     @Override
     public boolean go() {
-        Queue<PathQueueItem> frontier = new LinkedList<>();
-        List<Rule.Tuple3> startPositions = new ArrayList<>();
-        int[] generations = AH.array1D(grid.state.length, -1);
         int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
+        int N = grid.state.length;
+        if (stamps == null || stamps.length != N) {
+            directions = directions(MZ, edges, vertices);
+            generations = new int[N];
+            stamps = new int[N];
+            queue = new int[N];
+            starts = new int[N];
+            candidates = new int[26];
+            epoch = 0;
+            if (paths != 1) {
+                invalid = new int[N];
+                drawn = new int[N];
+                heap = new long[64];
+                repairStamp = 0;
+            }
+        }
         
-        for (int z = 0; z < MZ; z++) {
-            for (int y = 0; y < MY; y++) {
-                for (int x = 0; x < MX; x++) {
-                    int i = x + y * MX + z * MX * MY;
-                    generations[i] = -1;
-                    
-                    byte s = grid.state[i];
-                    if ((start & (1 << s)) != 0) {
-                        startPositions.add(new Rule.Tuple3(x, y, z));
-                    }
-                    if ((finish & (1 << s)) != 0) {
-                        generations[i] = 0;
-                        frontier.offer(new PathQueueItem(0, x, y, z));
-                    }
-                }
+        int startCount = 0;
+        for (int i = 0; i < N; i++) {
+            if ((start & (1 << grid.state[i])) != 0) {
+                starts[startCount++] = i;
             }
         }
         
-        if (startPositions.isEmpty() || frontier.isEmpty()) {
+        if (startCount == 0 || !computeGenerations()) {
             return false;
         }
         
-        while (!frontier.isEmpty()) {
-            PathQueueItem item = frontier.poll();
-            int t = item.t, x = item.x, y = item.y, z = item.z;
+        for (int drawnPaths = 0; paths <= 0 || drawnPaths < paths; drawnPaths++) {
+            boolean reachable = false;
+            for (int k = 0; k < startCount && !reachable; k++) {
+                reachable = starts[k] >= 0 && generation(starts[k]) > 0;
+            }
+            if (!reachable) {
+                if (drawnPaths > 0) break;
+                Log.debug("no reachable start positions");
+                return false;
+            }
+            
+            Rng localRandom = ip.randomKind.create(ip.random.nextInt());
+            double min = MX * MY * MZ, max = -2;
+            int argmin = -1, argmax = -1;
             
-            for (Rule.Tuple3 direction : getDirections(x, y, z, MX, MY, MZ, edges, vertices)) {
-                push(t + 1, x + direction.x(), y + direction.y(), z + direction.z(), generations, frontier, MX, MY, MZ);
+            for (int k = 0; k < startCount; k++) {
+                if (starts[k] < 0) continue;
+                int g = generation(starts[k]);
+                if (g == -1) continue;
+
+                double dg = g;
+                double noise = 0.1 * localRandom.nextDouble();
+                
+                if (dg + noise < min) {
+                    min = dg + noise;
+                    argmin = k;
+                }
+                
+                if (dg + noise > max) {
+                    max = dg + noise;
+                    argmax = k;
+                }
+            }
+            
+            int chosen = longest ? argmax : argmin;
+            int pen = starts[chosen];
+            // Within a batch every start position sets off at most one path
+            starts[chosen] = -1;
+            int penx = pen % MX, peny = (pen % (MX * MY)) / MX, penz = pen / (MX * MY);
+            int drawnCount = 0;
+            
+            int[] dir = direction(penx, peny, penz, null, localRandom);
+            penx += dir[0];
+            peny += dir[1];
+            penz += dir[2];
+            
+            while (generation(penx + peny * MX + penz * MX * MY) != 0) {
+                int i = penx + peny * MX + penz * MX * MY;
+                grid.state[i] = value;
+                ip.changes.add(new Rule.Tuple3(penx, peny, penz));
+                if (drawn != null) drawn[drawnCount++] = i;
+                dir = direction(penx, peny, penz, dir, localRandom);
+                penx += dir[0];
+                peny += dir[1];
+                penz += dir[2];
+            }
+            
+            if (paths <= 0 || drawnPaths + 1 < paths) {
+                repair(drawnCount);
             }
         }
         
-        if (startPositions.stream().noneMatch(p -> generations[p.x() + p.y() * MX + p.z() * MX * MY] > 0)) {
-            System.out.println("DEBUG: PathNode - No reachable start positions found. Checking generations:");
-            return false;
+        return true;
+    }
+    
+    // Breadth-first search from the finish cells over the substrate. Start cells get a generation but are not
+    // expanded. Returns false if there are no finish cells.
+    private boolean computeGenerations() {
+        int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            epoch = 1;
         }
         
-        Random localRandom = new Random(ip.random.nextInt());
-        double min = MX * MY * MZ, max = -2;
-        Rule.Tuple3 argmin = new Rule.Tuple3(-1, -1, -1), argmax = new Rule.Tuple3(-1, -1, -1);
-        
-        for (Rule.Tuple3 p : startPositions) {
-            int g = generations[p.x() + p.y() * MX + p.z() * MX * MY];
-            if (g == -1) continue;
-
-            double dg = g;
-            double noise = 0.1 * localRandom.nextDouble();
-            
-            if (dg + noise < min) {
-                min = dg + noise;
-                argmin = p;
+        int head = 0, tail = 0;
+        for (int i = 0; i < grid.state.length; i++) {
+            if ((finish & (1 << grid.state[i])) != 0) {
+                setGeneration(i, 0);
+                queue[tail++] = i;
             }
+        }
+        
+        while (head < tail) {
+            int i = queue[head++];
+            int t = generations[i] + 1;
+            int x = i % MX, y = (i % (MX * MY)) / MX, z = i / (MX * MY);
             
-            if (dg + noise > max) {
-                max = dg + noise;
-                argmax = p;
+            for (int[] d : directions) {
+                int nx = x + d[0], ny = y + d[1], nz = z + d[2];
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= MX || ny >= MY || nz >= MZ) continue;
+                
+                int n = nx + ny * MX + nz * MX * MY;
+                if (stamps[n] == epoch) continue;
+                byte v = grid.state[n];
+                if ((substrate & (1 << v)) != 0) {
+                    setGeneration(n, t);
+                    queue[tail++] = n;
+                } else if ((start & (1 << v)) != 0) {
+                    setGeneration(n, t);
+                }
             }
         }
+        return tail > 0;
+    }
+    
+    // Brings the generations up to date after the first count cells of drawn were painted. Cells whose every
+    // neighbor one generation closer has been invalidated are invalidated in turn, starting from the painted cells;
+    // invalidated cells are then reseeded from their valid neighbors and a shortest-first pass lowers everything
+    // reachable from them. Falls back to a new search when the invalidated area is large.
+    private void repair(int count) {
+        int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
+        int N = grid.state.length;
+        if (++repairStamp == Integer.MAX_VALUE) {
+            Arrays.fill(invalid, 0);
+            repairStamp = 1;
+        }
         
-        Rule.Tuple3 pen = longest ? argmax : argmin;
-        int penx = pen.x(), peny = pen.y(), penz = pen.z();
+        int n = 0;
+        for (int k = 0; k < count; k++) {
+            if (invalid[drawn[k]] != repairStamp) {
+                invalid[drawn[k]] = repairStamp;
+                queue[n++] = drawn[k];
+            }
+        }
         
-        Rule.Tuple3 dir = direction(penx, peny, penz, 0, 0, 0, generations, localRandom);
-        penx += dir.x();
-        peny += dir.y();
-        penz += dir.z();
+        for (int k = 0; k < n; k++) {
+            if (n > N / 8) {
+                computeGenerations();
+                return;
+            }
+            int u = queue[k];
+            int g = generation(u);
+            if (g < 0) continue;
+            int x = u % MX, y = (u % (MX * MY)) / MX, z = u / (MX * MY);
+            for (int[] d : directions) {
+                int nx = x + d[0], ny = y + d[1], nz = z + d[2];
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= MX || ny >= MY || nz >= MZ) continue;
+                
+                int v = nx + ny * MX + nz * MX * MY;
+                if (invalid[v] != repairStamp && generation(v) == g + 1 && !supported(v, g)) {
+                    invalid[v] = repairStamp;
+                    queue[n++] = v;
+                }
+            }
+        }
         
-        while (generations[penx + peny * MX + penz * MX * MY] != 0) {
-            grid.state[penx + peny * MX + penz * MX * MY] = value;
-            ip.changes.add(new Rule.Tuple3(penx, peny, penz));
-            dir = direction(penx, peny, penz, dir.x(), dir.y(), dir.z(), generations, localRandom);
-            penx += dir.x();
-            peny += dir.y();
-            penz += dir.z();
+        for (int k = 0; k < n; k++) {
+            stamps[queue[k]] = 0;
+        }
+        heapSize = 0;
+        for (int k = 0; k < n; k++) {
+            int u = queue[k];
+            byte s = grid.state[u];
+            if ((finish & (1 << s)) != 0) {
+                setGeneration(u, 0);
+                push(u);
+            } else if (((substrate | start) & (1 << s)) != 0) {
+                int x = u % MX, y = (u % (MX * MY)) / MX, z = u / (MX * MY);
+                int best = -1;
+                for (int[] d : directions) {
+                    int nx = x + d[0], ny = y + d[1], nz = z + d[2];
+                    if (nx < 0 || ny < 0 || nz < 0 || nx >= MX || ny >= MY || nz >= MZ) continue;
+                    
+                    int w = nx + ny * MX + nz * MX * MY;
+                    int gw = generation(w);
+                    if (gw >= 0 && expands(w) && (best == -1 || gw + 1 < best)) best = gw + 1;
+                }
+                if (best >= 0) {
+                    setGeneration(u, best);
+                    push(u);
+                }
+            }
         }
         
-        return true;
+        while (heapSize > 0) {
+            long top = pop();
+            int u = (int) top, g = (int) (top >>> 32);
+            if (generation(u) != g || !expands(u)) continue;
+            int x = u % MX, y = (u % (MX * MY)) / MX, z = u / (MX * MY);
+            for (int[] d : directions) {
+                int nx = x + d[0], ny = y + d[1], nz = z + d[2];
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= MX || ny >= MY || nz >= MZ) continue;
+                
+                int v = nx + ny * MX + nz * MX * MY;
+                int gv = generation(v);
+                if (((substrate | start) & (1 << grid.state[v])) != 0 && (gv == -1 || g + 1 < gv)) {
+                    setGeneration(v, g + 1);
+                    push(v);
+                }
+            }
+        }
     }
     
-    private void push(int t, int x, int y, int z, int[] generations, Queue<PathQueueItem> frontier, int MX, int MY, int MZ) {
-        if (x < 0 || y < 0 || z < 0 || x >= MX || y >= MY || z >= MZ) return;
-        
-        int i = x + y * MX + z * MX * MY;
-        byte v = grid.state[i];
-        if (generations[i] == -1 && ((substrate & (1 << v)) != 0 || (start & (1 << v)) != 0)) {
-            if ((substrate & (1 << v)) != 0) {
-                frontier.offer(new PathQueueItem(t, x, y, z));
-            }
-            generations[i] = t;
+    // Whether cell v still has a valid neighbor of generation g that search expands
+    private boolean supported(int v, int g) {
+        int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
+        int x = v % MX, y = (v % (MX * MY)) / MX, z = v / (MX * MY);
+        for (int[] d : directions) {
+            int nx = x + d[0], ny = y + d[1], nz = z + d[2];
+            if (nx < 0 || ny < 0 || nz < 0 || nx >= MX || ny >= MY || nz >= MZ) continue;
+            
+            int w = nx + ny * MX + nz * MX * MY;
+            if (invalid[w] != repairStamp && generation(w) == g && expands(w)) return true;
+        }
+        return false;
+    }
+    
+    // Finish cells and reached substrate cells pass their generation on to their neighbors
+    private boolean expands(int i) {
+        byte s = grid.state[i];
+        return (finish & (1 << s)) != 0 || (substrate & (1 << s)) != 0;
+    }
+    
+    // Binary min-heap of generation << 32 | cell
+    private void push(int i) {
+        long item = ((long) generations[i] << 32) | i;
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heap.length * 2);
+        int k = heapSize++;
+        while (k > 0) {
+            int parent = (k - 1) >> 1;
+            if (heap[parent] <= item) break;
+            heap[k] = heap[parent];
+            k = parent;
         }
+        heap[k] = item;
     }
     
-    private Rule.Tuple3 direction(int x, int y, int z, int dx, int dy, int dz, int[] generations, Random random) {
-        List<Rule.Tuple3> candidates = new ArrayList<>();
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int k = 0;
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = last;
+        return top;
+    }
+    
+    // Step from (x, y, z) to a neighbor one generation closer to the finish; dir is the previous step or null
+    private int[] direction(int x, int y, int z, int[] dir, Rng random) {
         int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
-        int g = generations[x + y * MX + z * MX * MY];
+        int g = generation(x + y * MX + z * MX * MY);
+        int count = 0;
         
         if (!vertices && !edges) {
-            if (dx != 0 || dy != 0 || dz != 0) {
-                int cx = x + dx, cy = y + dy, cz = z + dz;
-                if (inertia && cx >= 0 && cy >= 0 && cz >= 0 && cx < MX && cy < MY && cz < MZ && 
-                    generations[cx + cy * MX + cz * MX * MY] == g - 1) {
-                    return new Rule.Tuple3(dx, dy, dz);
+            if (dir != null && inertia) {
+                int cx = x + dir[0], cy = y + dir[1], cz = z + dir[2];
+                if (cx >= 0 && cy >= 0 && cz >= 0 && cx < MX && cy < MY && cz < MZ &&
+                    generation(cx + cy * MX + cz * MX * MY) == g - 1) {
+                    return dir;
                 }
             }
             
-            if (x > 0 && generations[x - 1 + y * MX + z * MX * MY] == g - 1) 
-                candidates.add(new Rule.Tuple3(-1, 0, 0));
-            if (x < MX - 1 && generations[x + 1 + y * MX + z * MX * MY] == g - 1) 
-                candidates.add(new Rule.Tuple3(1, 0, 0));
-            if (y > 0 && generations[x + (y - 1) * MX + z * MX * MY] == g - 1) 
-                candidates.add(new Rule.Tuple3(0, -1, 0));
-            if (y < MY - 1 && generations[x + (y + 1) * MX + z * MX * MY] == g - 1) 
-                candidates.add(new Rule.Tuple3(0, 1, 0));
-            if (z > 0 && generations[x + y * MX + (z - 1) * MX * MY] == g - 1) 
-                candidates.add(new Rule.Tuple3(0, 0, -1));
-            if (z < MZ - 1 && generations[x + y * MX + (z + 1) * MX * MY] == g - 1) 
-                candidates.add(new Rule.Tuple3(0, 0, 1));
-            
-            return RandomHelper.random(candidates, random);
+            for (int k = 0; k < AXES.length; k++) {
+                if (closer(x, y, z, AXES[k], g)) candidates[count++] = k;
+            }
+            return AXES[candidates[random.nextInt(count)]];
         } else {
-            for (Rule.Tuple3 p : getDirections(x, y, z, MX, MY, MZ, edges, vertices)) {
-                if (x + p.x() >= 0 && y + p.y() >= 0 && z + p.z() >= 0 &&
-                    x + p.x() < MX && y + p.y() < MY && z + p.z() < MZ &&
-                    generations[x + p.x() + (y + p.y()) * MX + (z + p.z()) * MX * MY] == g - 1) {
-                    candidates.add(p);
-                }
+            for (int k = 0; k < directions.length; k++) {
+                if (closer(x, y, z, directions[k], g)) candidates[count++] = k;
             }
             
-            Rule.Tuple3 result = new Rule.Tuple3(-1, -1, -1);
+            int[] result = NONE;
             
-            if (inertia && (dx != 0 || dy != 0 || dz != 0)) {
+            if (inertia && dir != null) {
                 double maxScalar = -4;
-                for (Rule.Tuple3 c : candidates) {
+                for (int k = 0; k < count; k++) {
+                    int[] c = directions[candidates[k]];
                     double noise = 0.1 * random.nextDouble();
-                    double cos = (c.x() * dx + c.y() * dy + c.z() * dz) /
-                               Math.sqrt((c.x() * c.x() + c.y() * c.y() + c.z() * c.z()) * (dx * dx + dy * dy + dz * dz));
+                    double cos = (c[0] * dir[0] + c[1] * dir[1] + c[2] * dir[2]) /
+                               Math.sqrt((c[0] * c[0] + c[1] * c[1] + c[2] * c[2]) * (dir[0] * dir[0] + dir[1] * dir[1] + dir[2] * dir[2]));
                     
                     if (cos + noise > maxScalar) {
                         maxScalar = cos + noise;
@@ -186,68 +378,29 @@ public class PathNode extends Node {
                     }
                 }
             } else {
-                result = RandomHelper.random(candidates, random);
+                result = directions[candidates[random.nextInt(count)]];
             }
             
             return result;
         }
     }
     
-    private static List<Rule.Tuple3> getDirections(int x, int y, int z, int MX, int MY, int MZ, boolean edges, boolean vertices) {
-        List<Rule.Tuple3> result = new ArrayList<>();
-        
-        if (MZ == 1) {
-            if (x > 0) result.add(new Rule.Tuple3(-1, 0, 0));
-            if (x < MX - 1) result.add(new Rule.Tuple3(1, 0, 0));
-            if (y > 0) result.add(new Rule.Tuple3(0, -1, 0));
-            if (y < MY - 1) result.add(new Rule.Tuple3(0, 1, 0));
-            
-            if (edges) {
-                if (x > 0 && y > 0) result.add(new Rule.Tuple3(-1, -1, 0));
-                if (x > 0 && y < MY - 1) result.add(new Rule.Tuple3(-1, 1, 0));
-                if (x < MX - 1 && y > 0) result.add(new Rule.Tuple3(1, -1, 0));
-                if (x < MX - 1 && y < MY - 1) result.add(new Rule.Tuple3(1, 1, 0));
-            }
-        } else {
-            if (x > 0) result.add(new Rule.Tuple3(-1, 0, 0));
-            if (x < MX - 1) result.add(new Rule.Tuple3(1, 0, 0));
-            if (y > 0) result.add(new Rule.Tuple3(0, -1, 0));
-            if (y < MY - 1) result.add(new Rule.Tuple3(0, 1, 0));
-            if (z > 0) result.add(new Rule.Tuple3(0, 0, -1));
-            if (z < MZ - 1) result.add(new Rule.Tuple3(0, 0, 1));
-            
-            if (edges) {
-                if (x > 0 && y > 0) result.add(new Rule.Tuple3(-1, -1, 0));
-                if (x > 0 && y < MY - 1) result.add(new Rule.Tuple3(-1, 1, 0));
-                if (x < MX - 1 && y > 0) result.add(new Rule.Tuple3(1, -1, 0));
-                if (x < MX - 1 && y < MY - 1) result.add(new Rule.Tuple3(1, 1, 0));
-                
-                if (x > 0 && z > 0) result.add(new Rule.Tuple3(-1, 0, -1));
-                if (x > 0 && z < MZ - 1) result.add(new Rule.Tuple3(-1, 0, 1));
-                if (x < MX - 1 && z > 0) result.add(new Rule.Tuple3(1, 0, -1));
-                if (x < MX - 1 && z < MZ - 1) result.add(new Rule.Tuple3(1, 0, 1));
-                
-                if (y > 0 && z > 0) result.add(new Rule.Tuple3(0, -1, -1));
-                if (y > 0 && z < MZ - 1) result.add(new Rule.Tuple3(0, -1, 1));
-                if (y < MY - 1 && z > 0) result.add(new Rule.Tuple3(0, 1, -1));
-                if (y < MY - 1 && z < MZ - 1) result.add(new Rule.Tuple3(0, 1, 1));
-            }
-            
-            if (vertices) {
-                if (x > 0 && y > 0 && z > 0) result.add(new Rule.Tuple3(-1, -1, -1));
-                if (x > 0 && y > 0 && z < MZ - 1) result.add(new Rule.Tuple3(-1, -1, 1));
-                if (x > 0 && y < MY - 1 && z > 0) result.add(new Rule.Tuple3(-1, 1, -1));
-                if (x > 0 && y < MY - 1 && z < MZ - 1) result.add(new Rule.Tuple3(-1, 1, 1));
-                if (x < MX - 1 && y > 0 && z > 0) result.add(new Rule.Tuple3(1, -1, -1));
-                if (x < MX - 1 && y > 0 && z < MZ - 1) result.add(new Rule.Tuple3(1, -1, 1));
-                if (x < MX - 1 && y < MY - 1 && z > 0) result.add(new Rule.Tuple3(1, 1, -1));
-                if (x < MX - 1 && y < MY - 1 && z < MZ - 1) result.add(new Rule.Tuple3(1, 1, 1));
-            }
-        }
-        
-        return result;
+    private boolean closer(int x, int y, int z, int[] d, int g) {
+        int nx = x + d[0], ny = y + d[1], nz = z + d[2];
+        return nx >= 0 && ny >= 0 && nz >= 0 && nx < grid.MX && ny < grid.MY && nz < grid.MZ &&
+               generation(nx + ny * grid.MX + nz * grid.MX * grid.MY) == g - 1;
     }
-
-    private record PathQueueItem(int t, int x, int y, int z) {
+    
+    // Neighborhood of a cell: 4 or 8 neighbors in 2D, 6, 18 or 26 in 3D. Steps leaving the grid are skipped by the callers.
+    private static int[][] directions(int MZ, boolean edges, boolean vertices) {
+        List<int[]> result = new ArrayList<>(Arrays.asList(AXES).subList(0, MZ == 1 ? 4 : 6));
+        if (edges) {
+            result.addAll(Arrays.asList(PLANE_DIAGONALS));
+            if (MZ != 1) result.addAll(Arrays.asList(SPACE_DIAGONALS));
+        }
+        if (vertices && MZ != 1) {
+            result.addAll(Arrays.asList(CORNERS));
+        }
+        return result.toArray(new int[0][]);
     }
-}
\ No newline at end of file
+}
@@ -8,6 +8,8 @@ import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.models.Observation;
 import com.jxon.juscore.mjcore.models.Rule;
 import com.jxon.juscore.mjcore.utils.AH;
+import com.jxon.juscore.mjcore.utils.Events;
+import com.jxon.juscore.mjcore.utils.Log;
 import com.jxon.juscore.mjcore.utils.Search;
 import com.jxon.juscore.mjcore.utils.SymmetryHelper;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
@@ -30,11 +32,12 @@ public abstract class RuleNode extends Node {
     protected Observation[] observations;
     protected double temperature;
     
-    protected boolean search, futureComputed;
+    protected boolean search, futureComputed, concurrentPotentials;
     protected int[] future;
     protected byte[][] trajectory;
     
-    private int limit;
+    private int limit, threads, width, tableSize;
+    private Search.Strategy strategy;
     private double depthCoefficient;
     
     public boolean[] last;
@@ -75,6 +78,7 @@ public abstract class RuleNode extends Node {
         
         rules = ruleList.toArray(new Rule[0]);
         last = new boolean[rules.length];
+        metrics.applications = new long[rules.length];
         
         steps = XMLHelper.get(element, "steps", 0);
         
@@ -109,7 +113,26 @@ public abstract class RuleNode extends Node {
             if (search) {
                 limit = XMLHelper.get(element, "limit", -1);
                 depthCoefficient = XMLHelper.get(element, "depthCoefficient", 0.5);
+                threads = XMLHelper.get(element, "threads", 1);
+                String strategyString = XMLHelper.get(element, "strategy", "best");
+                switch (strategyString) {
+                    case "best":
+                        strategy = Search.Strategy.BEST;
+                        break;
+                    case "beam":
+                        strategy = Search.Strategy.BEAM;
+                        break;
+                    case "ida":
+                        strategy = Search.Strategy.IDA;
+                        break;
+                    default:
+                        Interpreter.writeLine("unknown search strategy " + strategyString + " at line " + XMLHelper.getLineNumber(element));
+                        return false;
+                }
+                width = XMLHelper.get(element, "width", 256);
+                tableSize = XMLHelper.get(element, "table", 1 << 20);
             } else {
+                concurrentPotentials = XMLHelper.get(element, "concurrentPotentials", false);
                 potentials = AH.array2D(grid.C, grid.state.length, 0);
             }
             future = new int[grid.state.length];
@@ -157,14 +180,26 @@ public abstract class RuleNode extends Node {
                     trajectory = null;
                     int TRIES = limit < 0 ? 1 : 20;
                     for (int k = 0; k < TRIES && trajectory == null; k++) {
+                        Events.Search event = new Events.Search();
+                        event.begin();
+                        int seed = ip.random.nextInt();
                         trajectory = Search.run(grid.state, future, rules, grid.MX, grid.MY, grid.MZ,
-                                               grid.C, this instanceof AllNode, limit, depthCoefficient, ip.random.nextInt());
+                                               grid.C, this instanceof AllNode, limit, depthCoefficient, seed, threads,
+                                               strategy, width, tableSize);
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.describe(ip.name, MX, MY, MZ, seed, trajectory != null ? trajectory.length : -1);
+                            event.strategy = strategy.name();
+                            event.threads = threads;
+                            event.limit = limit;
+                            event.commit();
+                        }
                     }
                     if (trajectory == null) {
-                        System.out.println("SEARCH RETURNED NULL");
+                        Log.debug("search returned null");
                     }
                 } else {
-                    Observation.computeBackwardPotentials(potentials, future, MX, MY, MZ, rules);
+                    Observation.computeBackwardPotentials(potentials, future, MX, MY, MZ, rules, concurrentPotentials);
                 }
             }
         }
@@ -192,6 +227,7 @@ public abstract class RuleNode extends Node {
                         
                         int si = sx + sy * MX + sz * MX * MY;
                         if (!maskr[si] && grid.matches(rule, sx, sy, sz)) {
+                            metrics.found++;
                             add(r, sx, sy, sz, maskr);
                         }
                     }
@@ -218,6 +254,7 @@ public abstract class RuleNode extends Node {
                                 }
                                 
                                 if (grid.matches(rule, sx, sy, sz)) {
+                                    metrics.found++;
                                     add(r, sx, sy, sz, maskr);
                                 }
                             }
@@ -232,7 +269,7 @@ public abstract class RuleNode extends Node {
             for (int c = 0; c < fields.length; c++) {
                 Field field = fields[c];
                 if (field != null && (counter == 0 || field.recompute)) {
-                    boolean success = field.compute(potentials[c], grid);
+                    boolean success = field.update(potentials[c], grid, ip.changes, counter == 0);
                     if (!success && field.essential) {
                         return false;
                     }
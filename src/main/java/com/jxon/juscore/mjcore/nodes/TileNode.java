@@ -6,6 +6,8 @@ import com.jxon.juscore.mjcore.Interpreter;
 import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.utils.AH;
 import com.jxon.juscore.mjcore.utils.Helper;
+import com.jxon.juscore.mjcore.utils.Log;
+import com.jxon.juscore.mjcore.utils.OrdinalMap;
 import com.jxon.juscore.mjcore.utils.SymmetryHelper;
 import com.jxon.juscore.mjcore.utils.VoxHelper;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
@@ -14,11 +16,11 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.LongStream;
 
 public class TileNode extends WFCNode {
     private List<byte[]> tiledata;
@@ -34,10 +36,8 @@ public class TileNode extends WFCNode {
         overlapz = XMLHelper.get(element, "overlapz", 0);
 
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
             String filepath = "resources/tilesets/" + name + ".xml";
-            Document doc = builder.parse(new File(filepath));
+            Document doc = XMLHelper.loadDocument(new File(filepath));
             Element root = doc.getDocumentElement();
 
             boolean fullSymmetry = XMLHelper.get(root, "fullSymmetry", false);
@@ -86,7 +86,7 @@ public class TileNode extends WFCNode {
             tiledata = new ArrayList<>();
             Map<String, boolean[]> positions = new HashMap<>();
             List<Double> tempStationary = new ArrayList<>();
-            List<Integer> uniques = new ArrayList<>();
+            OrdinalMap uniques = new OrdinalMap();
 
             // Lambda functions for tile transformations
             Function<byte[], byte[]> zRotate = p -> newtile(p, (x, y, z) -> p[y + (S - 1 - x) * S + z * S * S]);
@@ -151,7 +151,7 @@ public class TileNode extends WFCNode {
             }
 
             P = tiledata.size();
-            System.out.println("P = " + P);
+            Log.debug("P = {}", P);
             weights = tempStationary.stream().mapToDouble(Double::doubleValue).toArray();
 
             // Build tilenames list
@@ -212,15 +212,10 @@ public class TileNode extends WFCNode {
                                          Function<byte[], byte[]> xRotate, Function<byte[], byte[]> xReflect,
                                          Function<byte[], byte[]> yReflect, Function<byte[], byte[]> zReflect) {
 
-        // Initialize propagator
-        boolean[][][] tempPropagator = AH.array3Dboolean(6, P, P, false);
-
-        Function<byte[], Integer> index = p -> {
-            for (int i = 0; i < tiledata.size(); i++) {
-                if (AH.same(p, tiledata.get(i))) return i;
-            }
-            return -1;
-        };
+        // Tiles are looked up by content; identical variants resolve to the first one, as with a linear scan
+        Map<TileKey, Integer> tileIndex = new HashMap<>(2 * P);
+        for (int i = 0; i < P; i++) tileIndex.putIfAbsent(new TileKey(tiledata.get(i)), i);
+        Function<byte[], Integer> index = p -> tileIndex.getOrDefault(new TileKey(p), -1);
 
         Function<String, String> last = attribute -> {
             if (attribute == null) return null;
@@ -256,7 +251,16 @@ public class TileNode extends WFCNode {
             return starttile;
         };
 
-        // Process neighbors
+        Function<Iterable<byte[]>, List<byte[]>> list = symmetries -> {
+            List<byte[]> result = new ArrayList<>();
+            for (byte[] t : symmetries) result.add(t);
+            return result;
+        };
+
+        // Declarations are resolved and validated in order, so errors are reported as before. Expanding
+        // their symmetry variants is independent per declaration and runs in parallel afterwards.
+        List<Consumer<Adjacencies>> declarations = new ArrayList<>();
+
         NodeList neighborNodes = root.getElementsByTagName("neighbors");
         if (neighborNodes.getLength() > 0) {
             Element neighborsElement = (Element) neighborNodes.item(0);
@@ -279,82 +283,31 @@ public class TileNode extends WFCNode {
                         byte[] rtile = tile.apply(right);
                         if (ltile == null || rtile == null) return false;
 
-                        // Process full symmetry
-                        List<byte[]> lsym = new ArrayList<>();
-                        for (byte[] t : SymmetryHelper.squareSymmetries(ltile, xRotate, yReflect, (p1, p2) -> false, null)) {
-                            lsym.add(t);
-                        }
-
-                        List<byte[]> rsym = new ArrayList<>();
-                        for (byte[] t : SymmetryHelper.squareSymmetries(rtile, xRotate, yReflect, (p1, p2) -> false, null)) {
-                            rsym.add(t);
-                        }
-
-                        for (int j = 0; j < lsym.size(); j++) {
-                            Integer li = index.apply(lsym.get(j));
-                            Integer ri = index.apply(rsym.get(j));
-                            if (li != null && ri != null && li >= 0 && ri >= 0) {
-                                tempPropagator[0][li][ri] = true;
-                                Integer lri = index.apply(xReflect.apply(rsym.get(j)));
-                                Integer rli = index.apply(xReflect.apply(lsym.get(j)));
-                                if (lri != null && rli != null && lri >= 0 && rli >= 0) {
-                                    tempPropagator[0][lri][rli] = true;
+                        declarations.add(adjacencies -> {
+                            List<byte[]> lsym = list.apply(SymmetryHelper.squareSymmetries(ltile, xRotate, yReflect, (p1, p2) -> false, null));
+                            List<byte[]> rsym = list.apply(SymmetryHelper.squareSymmetries(rtile, xRotate, yReflect, (p1, p2) -> false, null));
+                            for (int j = 0; j < lsym.size(); j++) {
+                                if (adjacencies.add(0, index.apply(lsym.get(j)), index.apply(rsym.get(j)))) {
+                                    adjacencies.add(0, index.apply(xReflect.apply(rsym.get(j))), index.apply(xReflect.apply(lsym.get(j))));
                                 }
                             }
-                        }
-
-                        // Process other directions
-                        byte[] dtile = zRotate.apply(ltile);
-                        byte[] utile = zRotate.apply(rtile);
 
-                        List<byte[]> dsym = new ArrayList<>();
-                        for (byte[] t : SymmetryHelper.squareSymmetries(dtile, yRotate, zReflect, (p1, p2) -> false, null)) {
-                            dsym.add(t);
-                        }
-
-                        List<byte[]> usym = new ArrayList<>();
-                        for (byte[] t : SymmetryHelper.squareSymmetries(utile, yRotate, zReflect, (p1, p2) -> false, null)) {
-                            usym.add(t);
-                        }
-
-                        for (int j = 0; j < dsym.size(); j++) {
-                            Integer di = index.apply(dsym.get(j));
-                            Integer ui = index.apply(usym.get(j));
-                            if (di != null && ui != null && di >= 0 && ui >= 0) {
-                                tempPropagator[1][di][ui] = true;
-                                Integer dri = index.apply(yReflect.apply(usym.get(j)));
-                                Integer uri = index.apply(yReflect.apply(dsym.get(j)));
-                                if (dri != null && uri != null && dri >= 0 && uri >= 0) {
-                                    tempPropagator[1][dri][uri] = true;
+                            List<byte[]> dsym = list.apply(SymmetryHelper.squareSymmetries(zRotate.apply(ltile), yRotate, zReflect, (p1, p2) -> false, null));
+                            List<byte[]> usym = list.apply(SymmetryHelper.squareSymmetries(zRotate.apply(rtile), yRotate, zReflect, (p1, p2) -> false, null));
+                            for (int j = 0; j < dsym.size(); j++) {
+                                if (adjacencies.add(1, index.apply(dsym.get(j)), index.apply(usym.get(j)))) {
+                                    adjacencies.add(1, index.apply(yReflect.apply(usym.get(j))), index.apply(yReflect.apply(dsym.get(j))));
                                 }
                             }
-                        }
-
-                        byte[] btile = yRotate.apply(ltile);
-                        byte[] ttile = yRotate.apply(rtile);
-
-                        List<byte[]> bsym = new ArrayList<>();
-                        for (byte[] t : SymmetryHelper.squareSymmetries(btile, zRotate, xReflect, (p1, p2) -> false, null)) {
-                            bsym.add(t);
-                        }
-
-                        List<byte[]> tsym = new ArrayList<>();
-                        for (byte[] t : SymmetryHelper.squareSymmetries(ttile, zRotate, xReflect, (p1, p2) -> false, null)) {
-                            tsym.add(t);
-                        }
 
-                        for (int j = 0; j < bsym.size(); j++) {
-                            Integer bi = index.apply(bsym.get(j));
-                            Integer ti = index.apply(tsym.get(j));
-                            if (bi != null && ti != null && bi >= 0 && ti >= 0) {
-                                tempPropagator[4][bi][ti] = true;
-                                Integer bri = index.apply(zReflect.apply(tsym.get(j)));
-                                Integer tri = index.apply(zReflect.apply(bsym.get(j)));
-                                if (bri != null && tri != null && bri >= 0 && tri >= 0) {
-                                    tempPropagator[4][bri][tri] = true;
+                            List<byte[]> bsym = list.apply(SymmetryHelper.squareSymmetries(yRotate.apply(ltile), zRotate, xReflect, (p1, p2) -> false, null));
+                            List<byte[]> tsym = list.apply(SymmetryHelper.squareSymmetries(yRotate.apply(rtile), zRotate, xReflect, (p1, p2) -> false, null));
+                            for (int j = 0; j < bsym.size(); j++) {
+                                if (adjacencies.add(4, index.apply(bsym.get(j)), index.apply(tsym.get(j)))) {
+                                    adjacencies.add(4, index.apply(zReflect.apply(tsym.get(j))), index.apply(zReflect.apply(bsym.get(j))));
                                 }
                             }
-                        }
+                        });
                     }
                 } else {
 
@@ -368,56 +321,21 @@ public class TileNode extends WFCNode {
                         byte[] rtile = tile.apply(right);
                         if (ltile == null || rtile == null) return false;
 
-                        Integer li = index.apply(ltile);
-                        Integer ri = index.apply(rtile);
-                        if (li != null && ri != null && li >= 0 && ri >= 0) {
-                            tempPropagator[0][li][ri] = true;
-
-                            Integer lyi = index.apply(yReflect.apply(ltile));
-                            Integer ryi = index.apply(yReflect.apply(rtile));
-                            if (lyi != null && ryi != null && lyi >= 0 && ryi >= 0) {
-                                tempPropagator[0][lyi][ryi] = true;
-                            }
-
-                            Integer lxi = index.apply(xReflect.apply(rtile));
-                            Integer rxi = index.apply(xReflect.apply(ltile));
-                            if (lxi != null && rxi != null && lxi >= 0 && rxi >= 0) {
-                                tempPropagator[0][lxi][rxi] = true;
+                        declarations.add(adjacencies -> {
+                            if (adjacencies.add(0, index.apply(ltile), index.apply(rtile))) {
+                                adjacencies.add(0, index.apply(yReflect.apply(ltile)), index.apply(yReflect.apply(rtile)));
+                                adjacencies.add(0, index.apply(xReflect.apply(rtile)), index.apply(xReflect.apply(ltile)));
+                                adjacencies.add(0, index.apply(yReflect.apply(xReflect.apply(rtile))), index.apply(yReflect.apply(xReflect.apply(ltile))));
                             }
 
-                            Integer lyxi = index.apply(yReflect.apply(xReflect.apply(rtile)));
-                            Integer ryxi = index.apply(yReflect.apply(xReflect.apply(ltile)));
-                            if (lyxi != null && ryxi != null && lyxi >= 0 && ryxi >= 0) {
-                                tempPropagator[0][lyxi][ryxi] = true;
+                            byte[] dtile = zRotate.apply(ltile);
+                            byte[] utile = zRotate.apply(rtile);
+                            if (adjacencies.add(1, index.apply(dtile), index.apply(utile))) {
+                                adjacencies.add(1, index.apply(xReflect.apply(dtile)), index.apply(xReflect.apply(utile)));
+                                adjacencies.add(1, index.apply(yReflect.apply(utile)), index.apply(yReflect.apply(dtile)));
+                                adjacencies.add(1, index.apply(xReflect.apply(yReflect.apply(utile))), index.apply(xReflect.apply(yReflect.apply(dtile))));
                             }
-                        }
-
-                        byte[] dtile = zRotate.apply(ltile);
-                        byte[] utile = zRotate.apply(rtile);
-
-                        Integer di = index.apply(dtile);
-                        Integer ui = index.apply(utile);
-                        if (di != null && ui != null && di >= 0 && ui >= 0) {
-                            tempPropagator[1][di][ui] = true;
-
-                            Integer dxi = index.apply(xReflect.apply(dtile));
-                            Integer uxi = index.apply(xReflect.apply(utile));
-                            if (dxi != null && uxi != null && dxi >= 0 && uxi >= 0) {
-                                tempPropagator[1][dxi][uxi] = true;
-                            }
-
-                            Integer dyi = index.apply(yReflect.apply(utile));
-                            Integer uyi = index.apply(yReflect.apply(dtile));
-                            if (dyi != null && uyi != null && dyi >= 0 && uyi >= 0) {
-                                tempPropagator[1][dyi][uyi] = true;
-                            }
-
-                            Integer dyxi = index.apply(xReflect.apply(yReflect.apply(utile)));
-                            Integer uyxi = index.apply(xReflect.apply(yReflect.apply(dtile)));
-                            if (dyxi != null && uyxi != null && dyxi >= 0 && uyxi >= 0) {
-                                tempPropagator[1][dyxi][uyxi] = true;
-                            }
-                        }
+                        });
                     } else {
                         String top = XMLHelper.get(neighborElement, "top", (String) null);
                         String bottom = XMLHelper.get(neighborElement, "bottom", (String) null);
@@ -432,55 +350,75 @@ public class TileNode extends WFCNode {
                             byte[] btile = tile.apply(bottom);
                             if (ttile == null || btile == null) return false;
 
-                            List<byte[]> tsym = new ArrayList<>();
-                            for (byte[] t : SymmetryHelper.squareSymmetries(ttile, zRotate, xReflect, (p1, p2) -> false, null)) {
-                                tsym.add(t);
-                            }
-
-                            List<byte[]> bsym = new ArrayList<>();
-                            for (byte[] t : SymmetryHelper.squareSymmetries(btile, zRotate, xReflect, (p1, p2) -> false, null)) {
-                                bsym.add(t);
-                            }
-
-                            for (int j = 0; j < tsym.size(); j++) {
-                                Integer bi = index.apply(bsym.get(j));
-                                Integer ti = index.apply(tsym.get(j));
-                                if (bi != null && ti != null && bi >= 0 && ti >= 0) {
-                                    tempPropagator[4][bi][ti] = true;
+                            declarations.add(adjacencies -> {
+                                List<byte[]> tsym = list.apply(SymmetryHelper.squareSymmetries(ttile, zRotate, xReflect, (p1, p2) -> false, null));
+                                List<byte[]> bsym = list.apply(SymmetryHelper.squareSymmetries(btile, zRotate, xReflect, (p1, p2) -> false, null));
+                                for (int j = 0; j < tsym.size(); j++) {
+                                    adjacencies.add(4, index.apply(bsym.get(j)), index.apply(tsym.get(j)));
                                 }
-                            }
+                            });
                         }
                     }
                 }
             }
         }
 
-        // Fill opposite directions
-        for (int p2 = 0; p2 < P; p2++) {
+        long[] entries = declarations.parallelStream().map(declaration -> {
+            Adjacencies adjacencies = new Adjacencies();
+            declaration.accept(adjacencies);
+            return adjacencies;
+        }).flatMapToLong(Adjacencies::stream).sorted().distinct().toArray();
+
+        // Entries are sorted by (d, p1, p2), so each row comes out ascending like the dense scan produced
+        propagator = new int[6][P][];
+        int start = 0;
+        for (int d = 0; d < 6; d++) {
             for (int p1 = 0; p1 < P; p1++) {
-                tempPropagator[2][p2][p1] = tempPropagator[0][p1][p2];
-                tempPropagator[3][p2][p1] = tempPropagator[1][p1][p2];
-                tempPropagator[5][p2][p1] = tempPropagator[4][p1][p2];
+                long row = ((long) d << 48) | ((long) p1 << 24);
+                int end = start;
+                while (end < entries.length && (entries[end] & ~0xFFFFFFL) == row) end++;
+                int[] sp = new int[end - start];
+                for (int k = 0; k < sp.length; k++) sp[k] = (int) (entries[start + k] & 0xFFFFFFL);
+                propagator[d][p1] = sp;
+                start = end;
             }
         }
 
-        // Convert to sparse propagator
-        propagator = new int[6][][];
-        for (int d = 0; d < 6; d++) {
-            propagator[d] = new int[P][];
-            for (int p1 = 0; p1 < P; p1++) {
-                List<Integer> sp = new ArrayList<>();
-                boolean[] tp = tempPropagator[d][p1];
+        return true;
+    }
 
-                for (int p2 = 0; p2 < P; p2++) {
-                    if (tp[p2]) sp.add(p2);
-                }
+    // Tile content with value equality, for hash lookups of symmetry variants
+    private record TileKey(byte[] data) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TileKey other && Arrays.equals(data, other.data);
+        }
 
-                propagator[d][p1] = sp.stream().mapToInt(Integer::intValue).toArray();
-            }
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(data);
         }
+    }
 
-        return true;
+    // Allowed (d, p1, p2) adjacencies packed into longs. Each pair is recorded together with its
+    // mirror in the opposite direction.
+    private static final class Adjacencies {
+        private static final int[] OPPOSITE = {2, 3, 0, 1, 5, 4};
+
+        private long[] data = new long[64];
+        private int size;
+
+        boolean add(int d, int p1, int p2) {
+            if (p1 < 0 || p2 < 0) return false;
+            if (size + 2 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            data[size++] = ((long) d << 48) | ((long) p1 << 24) | p2;
+            data[size++] = ((long) OPPOSITE[d] << 48) | ((long) p2 << 24) | p1;
+            return true;
+        }
+
+        LongStream stream() {
+            return Arrays.stream(data, 0, size);
+        }
     }
 
     private byte[] newtile(byte[] p, TriFunction<Integer, Integer, Integer, Byte> f) {
@@ -489,7 +427,6 @@ public class TileNode extends WFCNode {
 
     @Override
     protected void updateState() {
-        Random r = new Random();
         for (int z = 0; z < grid.MZ; z++) {
             for (int y = 0; y < grid.MY; y++) {
                 for (int x = 0; x < grid.MX; x++) {
@@ -520,7 +457,7 @@ public class TileNode extends WFCNode {
                                 byte argmax = (byte) 0xff;
 
                                 for (byte c = 0; c < v.length; c++) {
-                                    double vote = v[c] + 0.1 * r.nextDouble();
+                                    double vote = v[c] + 0.1 * noise.nextDouble();
                                     if (vote > max) {
                                         argmax = c;
                                         max = vote;
@@ -3,13 +3,15 @@
 package com.jxon.juscore.mjcore.nodes;
 
 import com.jxon.juscore.mjcore.utils.AH;
+import com.jxon.juscore.mjcore.utils.Events;
+import com.jxon.juscore.mjcore.utils.Log;
 import com.jxon.juscore.mjcore.models.Grid;
 import com.jxon.juscore.mjcore.utils.RandomHelper;
+import com.jxon.juscore.mjcore.utils.Rng;
 import com.jxon.juscore.mjcore.utils.XMLHelper;
 import org.w3c.dom.Element;
 
 import java.util.Map;
-import java.util.Random;
 
 public abstract class WFCNode extends Branch {
     protected Wave wave;
@@ -69,7 +71,10 @@ public abstract class WFCNode extends Branch {
     }
     
     private boolean firstgo = true;
-    private Random random;
+    private Rng random;
+    // Breaks ties between equally voted colors when updateState draws a partially observed wave. It is seeded
+    // from the good seed, so that every frame of a run is reproducible.
+    protected Rng noise;
 
     @Override
     public boolean go() {
@@ -79,6 +84,7 @@ public abstract class WFCNode extends Branch {
 
         if (firstgo) {
             wave.init(propagator, sumOfWeights, sumOfWeightLogWeights, startingEntropy, shannon);
+            waveReset();
 
             for (int i = 0; i < wave.data.length; i++) {
                 byte value = grid.state[i];
@@ -94,7 +100,7 @@ public abstract class WFCNode extends Branch {
 
             boolean firstSuccess = propagate();
             if (!firstSuccess) {
-                System.out.println("initial conditions are contradictive");
+                Log.warn("initial conditions are contradictive");
                 return false;
             }
             startwave.copyFrom(wave, propagator.length, shannon);
@@ -104,9 +110,11 @@ public abstract class WFCNode extends Branch {
                 return false;
             }
 
-            random = new Random(goodseed);
+            random = ip.randomKind.create(goodseed);
+            noise = ip.randomKind.create(~goodseed);
             stacksize = 0;
             wave.copyFrom(startwave, propagator.length, shannon);
+            waveReset();
             firstgo = false;
 
             newgrid.clear();
@@ -117,10 +125,11 @@ public abstract class WFCNode extends Branch {
                 observe(node, random);
                 boolean success = propagate(); // 关键：检查propagate结果
                 if (!success) {
-                    System.out.println("WFC: Contradiction detected, restarting...");
+                    Log.debug("wfc contradiction, restarting");
                     // 重置并重试
                     stacksize = 0;
                     wave.copyFrom(startwave, propagator.length, shannon);
+                    waveReset();
                     return true; // 继续尝试
                 }
             } else {
@@ -141,6 +150,7 @@ public abstract class WFCNode extends Branch {
         while (stacksize > 0) {
             WFCStackItem item = stack[stacksize - 1];
             stacksize--;
+            metrics.propagations++;
 
             int i1 = item.i, p1 = item.p;
             int x1 = i1 % MX, y1 = (i1 % (MX * MY)) / MX, z1 = i1 / (MX * MY);
@@ -195,6 +205,7 @@ public abstract class WFCNode extends Branch {
             }
         }
 
+        if (!hasValidStates) metrics.contradictions++;
         return hasValidStates;
     }
 
@@ -202,7 +213,7 @@ public abstract class WFCNode extends Branch {
     private void ban(int i, int t) {
         // 添加边界检查
         if (i < 0 || i >= wave.data.length || t < 0 || t >= P) {
-            System.out.println("DEBUG: Invalid ban parameters: i=" + i + ", t=" + t + ", data.length=" + wave.data.length + ", P=" + P);
+            Log.error("invalid ban parameters i = " + i + ", t = " + t + ", data.length = " + wave.data.length + ", P = " + P);
             return;
         }
 
@@ -211,6 +222,8 @@ public abstract class WFCNode extends Branch {
         }
 
         wave.data[i][t] = false;
+        metrics.bans++;
+        banned(i, t);
 
         int[] comp = wave.compatible[i][t];
         for (int d = 0; d < propagator.length; d++) {
@@ -241,13 +254,16 @@ public abstract class WFCNode extends Branch {
     // 修正的goodSeed方法，增加重试机制
     private Integer goodSeed() {
         for (int k = 0; k < tries; k++) {
+            Events.SeedAttempt event = new Events.SeedAttempt();
+            event.begin();
             int observationsSoFar = 0;
             int seed = ip.random.nextInt();
-            random = new Random(seed);
+            random = ip.randomKind.create(seed);
             stacksize = 0;
             wave.copyFrom(startwave, propagator.length, shannon);
+            waveReset();
 
-            boolean success;
+            boolean success = true;
             while (true) {
                 int node = nextUnobservedNode(random);
                 if (node >= 0) {
@@ -255,21 +271,30 @@ public abstract class WFCNode extends Branch {
                     observationsSoFar++;
                     success = propagate();
                     if (!success) {
-                        System.out.println("CONTRADICTION on try " + k + " with " + observationsSoFar + " observations");
+                        if (Log.isDebugEnabled()) Log.debug("CONTRADICTION on try {} with {} observations", k, observationsSoFar);
                         break;
                     }
                 } else {
-                    System.out.println("wfc found a good seed " + seed + " on try " + k + " with " + observationsSoFar + " observations");
-                    return seed;
+                    if (Log.isDebugEnabled()) Log.debug("wfc found a good seed {} on try {} with {} observations", seed, k, observationsSoFar);
+                    break;
                 }
             }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.describe(ip.name, grid.MX, grid.MY, grid.MZ, seed, observationsSoFar);
+                event.attempt = k;
+                event.success = success;
+                event.commit();
+            }
+            if (success) return seed;
         }
 
-        System.out.println("wfc failed to find a good seed in " + tries + " tries");
+        Log.warn("wfc failed to find a good seed in {} tries", tries);
         return null;
     }
     
-    private int nextUnobservedNode(Random random) {
+    private int nextUnobservedNode(Rng random) {
         int MX = grid.MX, MY = grid.MY, MZ = grid.MZ;
         double min = 1E+4;
         int argmin = -1;
@@ -296,7 +321,7 @@ public abstract class WFCNode extends Branch {
         return argmin;
     }
     
-    private void observe(int node, Random random) {
+    private void observe(int node, Rng random) {
         boolean[] w = wave.data[node];
         for (int t = 0; t < P; t++) {
             distribution[t] = w[t] ? weights[t] : 0.0;
@@ -309,7 +334,26 @@ public abstract class WFCNode extends Branch {
         }
     }
 
+    // Restores the wave found by the first go(), before any observation. Package-private for the benchmarks.
+    void rewind() {
+        stacksize = 0;
+        wave.copyFrom(startwave, propagator.length, shannon);
+        waveReset();
+    }
+
+    // Observes one cell and propagates the consequences, as a single step of go() does
+    boolean collapse(int node, Rng random) {
+        observe(node, random);
+        return propagate();
+    }
+
     protected abstract void updateState();
+
+    // Called after pattern t was removed from cell i, so subclasses can keep derived state in sync.
+    protected void banned(int i, int t) {}
+
+    // Called whenever the wave was reinitialized or copied wholesale, invalidating derived state.
+    protected void waveReset() {}
     
     protected static final int[] DX = {1, 0, -1, 0, 0, 0};
     protected static final int[] DY = {0, 1, 0, -1, 0, 0};
@@ -0,0 +1,32 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class Board {
+    public int parentIndex, depth, backwardEstimate, forwardEstimate;
+
+    public Board(int parentIndex, int depth, int backwardEstimate, int forwardEstimate) {
+        this.parentIndex = parentIndex;
+        this.depth = depth;
+        this.backwardEstimate = backwardEstimate;
+        this.forwardEstimate = forwardEstimate;
+    }
+
+    public double rank(Random random, double depthCoefficient) {
+        double result = depthCoefficient < 0.0 ? 1000 - depth :
+                forwardEstimate + backwardEstimate + 2.0 * depthCoefficient * depth;
+        return result + 0.0001 * random.nextDouble();
+    }
+
+    public static List<Integer> trajectory(int index, List<Board> database) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = index; database.get(i).parentIndex >= 0; i = database.get(i).parentIndex) {
+            result.add(i);
+        }
+        return result;
+    }
+}
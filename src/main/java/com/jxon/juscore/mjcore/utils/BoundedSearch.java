@@ -0,0 +1,190 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import com.jxon.juscore.mjcore.models.Observation;
+import com.jxon.juscore.mjcore.models.Rule;
+
+import java.util.*;
+
+// Search strategies whose memory does not grow with the number of states visited. Beam search keeps the best
+// width states of each depth, up to tableSize states in all; iterative-deepening A* keeps only the current path.
+// Both remember visited states in a transposition table of fixed size instead of a full visited set.
+final class BoundedSearch {
+
+    private BoundedSearch() {} // Prevent instantiation
+
+    private record Candidate(byte[] state, long hash, int parent, int backwardEstimate, int forwardEstimate,
+                             double priority) {
+    }
+
+    private static final class Evaluator {
+        final int[] future;
+        final Rule[] rules;
+        final int MX, MY, MZ;
+        final boolean all;
+        final int limit;
+        final int[][] bpotentials, fpotentials;
+        int backwardEstimate, forwardEstimate, states;
+
+        Evaluator(int[] future, Rule[] rules, int MX, int MY, int MZ, int C, boolean all, int limit, int[][] bpotentials) {
+            this.future = future;
+            this.rules = rules;
+            this.MX = MX;
+            this.MY = MY;
+            this.MZ = MZ;
+            this.all = all;
+            this.limit = limit;
+            this.bpotentials = bpotentials;
+            fpotentials = AH.array2D(C, future.length, -1);
+        }
+
+        Iterable<byte[]> children(byte[] state) {
+            return all ? Search.allChildStates(state, MX, MY, rules, bpotentials) : Search.oneChildStates(state, MX, MY, rules);
+        }
+
+        // Computes both estimates of a state; false if the future is unreachable from it
+        boolean evaluate(byte[] state) {
+            states++;
+            backwardEstimate = Observation.backwardPointwise(bpotentials, state);
+            if (backwardEstimate < 0) return false;
+            Observation.computeForwardPotentials(fpotentials, state, MX, MY, MZ, rules);
+            forwardEstimate = Observation.forwardPointwise(fpotentials, future);
+            return forwardEstimate >= 0;
+        }
+
+        boolean exhausted() {
+            return limit >= 0 && states >= limit;
+        }
+    }
+
+    // Candidates of the next depth compete for width places, ranked like the best-first frontier. The states of
+    // all depths are kept packed so that the trajectory can be read back. The table evicts entries and may let a
+    // state in again, so a beam over reversible rules need not end; the search gives up once tableSize states
+    // are stored.
+    static byte[][] beam(byte[] present, int[] future, Rule[] rules, int MX, int MY, int MZ, int C, boolean all,
+                         int limit, double depthCoefficient, int seed, int width, int tableSize, int[][] bpotentials) {
+        Evaluator evaluator = new Evaluator(future, rules, MX, MY, MZ, C, all, limit, bpotentials);
+        TranspositionTable table = new TranspositionTable(tableSize);
+        Random random = new Random(seed);
+
+        StateStore stored = new StateStore(present.length, C);
+        int[] parents = new int[Math.max(1, Math.min(tableSize, 1024))];
+        stored.add(present, StateStore.hash(present));
+        parents[0] = -1;
+        table.visit(StateStore.hash(present), 0);
+
+        int[] layer = {0};
+        for (int depth = 1; layer.length > 0; depth++) {
+            PriorityQueue<Candidate> best = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.priority).reversed());
+            for (int index : layer) {
+                for (byte[] child : evaluator.children(stored.get(index))) {
+                    long hash = StateStore.hash(child);
+                    if (!table.visit(hash, depth)) continue;
+                    if (evaluator.exhausted()) return null;
+                    if (!evaluator.evaluate(child)) continue;
+
+                    if (evaluator.forwardEstimate == 0) {
+                        List<byte[]> trajectory = new ArrayList<>();
+                        trajectory.add(child);
+                        for (int k = index; parents[k] >= 0; k = parents[k]) trajectory.add(stored.get(k));
+                        Collections.reverse(trajectory);
+                        Log.debug("found a trajectory of length {}, visited {} states", depth, evaluator.states);
+                        return trajectory.toArray(new byte[0][]);
+                    }
+
+                    double priority = evaluator.backwardEstimate + evaluator.forwardEstimate + 0.0001 * random.nextDouble();
+                    if (best.size() < width) {
+                        best.offer(new Candidate(child, hash, index, evaluator.backwardEstimate, evaluator.forwardEstimate, priority));
+                    } else if (priority < Objects.requireNonNull(best.peek()).priority) {
+                        best.poll();
+                        best.offer(new Candidate(child, hash, index, evaluator.backwardEstimate, evaluator.forwardEstimate, priority));
+                    }
+                }
+            }
+
+            if (stored.size() + best.size() > tableSize) {
+                Log.debug("beam stored {} states without reaching the goal", stored.size());
+                return null;
+            }
+            if (stored.size() + best.size() > parents.length) {
+                parents = Arrays.copyOf(parents, Math.min(tableSize, Math.max(2 * parents.length, stored.size() + best.size())));
+            }
+            layer = new int[best.size()];
+            int k = 0;
+            for (Candidate candidate : best) {
+                int id = stored.add(candidate.state, candidate.hash);
+                parents[id] = candidate.parent;
+                layer[k++] = id;
+            }
+        }
+        return null;
+    }
+
+    // Depth-first search bounded by f = backward + forward estimate + 2 * depthCoefficient * depth, with the bound
+    // raised to the smallest f that exceeded it after every pass. Each pass starts a new table generation.
+    static byte[][] ida(byte[] present, int[] future, Rule[] rules, int MX, int MY, int MZ, int C, boolean all,
+                        int limit, double depthCoefficient, int seed, int tableSize, int[][] bpotentials,
+                        int rootBackwardEstimate, int rootForwardEstimate) {
+        Evaluator evaluator = new Evaluator(future, rules, MX, MY, MZ, C, all, limit, bpotentials);
+        TranspositionTable table = new TranspositionTable(tableSize);
+        Random random = new Random(seed);
+        double coefficient = 2.0 * Math.max(0.0, depthCoefficient);
+
+        double bound = rootBackwardEstimate + rootForwardEstimate;
+        while (true) {
+            double next = Double.POSITIVE_INFINITY;
+            table.visit(StateStore.hash(present), 0);
+
+            // path.get(d) is the state at depth d; pending.get(d) are its children still to try, best last
+            List<byte[]> path = new ArrayList<>();
+            List<List<Candidate>> pending = new ArrayList<>();
+            path.add(present);
+            pending.add(expand(present, evaluator, random));
+
+            while (!pending.isEmpty()) {
+                List<Candidate> children = pending.get(pending.size() - 1);
+                if (children.isEmpty()) {
+                    pending.remove(pending.size() - 1);
+                    path.remove(path.size() - 1);
+                    continue;
+                }
+
+                int depth = path.size();
+                Candidate child = children.remove(children.size() - 1);
+                double f = child.backwardEstimate + child.forwardEstimate + coefficient * depth;
+                if (f > bound) {
+                    next = Math.min(next, f);
+                    continue;
+                }
+                if (!table.visit(child.hash, depth)) continue;
+
+                if (child.forwardEstimate == 0) {
+                    path.add(child.state);
+                    Log.debug("found a trajectory of length {}, visited {} states", depth, evaluator.states);
+                    return path.subList(1, path.size()).toArray(new byte[0][]);
+                }
+                if (evaluator.exhausted()) return null;
+
+                path.add(child.state);
+                pending.add(expand(child.state, evaluator, random));
+            }
+
+            if (next == Double.POSITIVE_INFINITY) return null;
+            bound = next;
+            table.nextGeneration();
+        }
+    }
+
+    // Evaluated children of a state ordered so that the most promising one is at the end of the list
+    private static List<Candidate> expand(byte[] state, Evaluator evaluator, Random random) {
+        List<Candidate> result = new ArrayList<>();
+        for (byte[] child : evaluator.children(state)) {
+            if (!evaluator.evaluate(child)) continue;
+            double priority = evaluator.backwardEstimate + evaluator.forwardEstimate + 0.0001 * random.nextDouble();
+            result.add(new Candidate(child, StateStore.hash(child), -1, evaluator.backwardEstimate, evaluator.forwardEstimate, priority));
+        }
+        result.sort(Comparator.comparingDouble((Candidate c) -> c.priority).reversed());
+        return result;
+    }
+}
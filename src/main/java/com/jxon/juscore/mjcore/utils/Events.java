@@ -0,0 +1,95 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import jdk.jfr.*;
+
+// Java Flight Recorder events of the generator. Emitters follow the usual pattern: create, begin, run the work,
+// and fill in the fields only if shouldCommit(), so that without a recording the events are optimized away.
+// Every event carries the model name, the grid size, the seed of the run and a step count.
+public final class Events {
+
+    private Events() {} // Prevent instantiation
+
+    @Category("MarkovJunior")
+    @StackTrace(false)
+    public abstract static class GenerationEvent extends Event {
+        @Label("Model")
+        public String model;
+        @Label("MX")
+        public int MX;
+        @Label("MY")
+        public int MY;
+        @Label("MZ")
+        public int MZ;
+        @Label("Seed")
+        public long seed;
+        @Label("Steps")
+        public int steps;
+
+        public void describe(String model, int MX, int MY, int MZ, long seed, int steps) {
+            this.model = model;
+            this.MX = MX;
+            this.MY = MY;
+            this.MZ = MZ;
+            this.seed = seed;
+            this.steps = steps;
+        }
+    }
+
+    @Name("juscore.Load")
+    @Label("Model Load")
+    public static final class Load extends GenerationEvent {
+        @Label("Success")
+        public boolean success;
+    }
+
+    // steps is the number of interpreter steps made, limit the number requested (0 for no limit)
+    @Name("juscore.Run")
+    @Label("Run")
+    public static final class Run extends GenerationEvent {
+        @Label("Step Limit")
+        public int limit;
+    }
+
+    // One go() of a node. Recorded only above the threshold, every step would flood the recording.
+    @Name("juscore.NodeStep")
+    @Label("Node Step")
+    @Threshold("1 ms")
+    public static final class NodeStep extends GenerationEvent {
+        @Label("Node")
+        public String node;
+        @Label("Line")
+        public int line;
+        @Label("Progress")
+        public boolean progress;
+    }
+
+    // One try of WFCNode.goodSeed; seed is the seed tried and steps the observations made with it
+    @Name("juscore.SeedAttempt")
+    @Label("WFC Seed Attempt")
+    public static final class SeedAttempt extends GenerationEvent {
+        @Label("Attempt")
+        public int attempt;
+        @Label("Success")
+        public boolean success;
+    }
+
+    // One call of Search.run; steps is the length of the trajectory found, -1 if none
+    @Name("juscore.Search")
+    @Label("Search")
+    public static final class Search extends GenerationEvent {
+        @Label("Strategy")
+        public String strategy;
+        @Label("Threads")
+        public int threads;
+        @Label("State Limit")
+        public int limit;
+    }
+
+    // Placement of a generated structure into a Minecraft world; steps is the number of blocks set
+    @Name("juscore.Apply")
+    @Label("World Application")
+    public static final class Apply extends GenerationEvent {
+    }
+}
@@ -3,9 +3,17 @@
 package com.jxon.juscore.mjcore.utils;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
 import javax.imageio.ImageIO;
 
 public final class Graphics {
@@ -36,25 +44,36 @@ public final class Graphics {
     
     public static void saveBitmap(int[] data, int width, int height, String filename) {
         if (width <= 0 || height <= 0 || data.length != width * height) {
-            System.out.println("ERROR: wrong image width * height = " + width + " * " + height);
+            Log.error("wrong image width * height = " + width + " * " + height);
             return;
         }
         
+        saveImage(wrap(data, width, height), filename);
+    }
+
+    // Encodes the image as png, or jpg if the file name says so
+    public static void saveImage(BufferedImage image, String filename) {
         try {
-            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    image.setRGB(x, y, data[x + y * width]);
-                }
-            }
-            
             String extension = filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
             ImageIO.write(image, extension.equals("jpg") || extension.equals("jpeg") ? "jpg" : "png", new File(filename));
         } catch (IOException e) {
-            System.out.println("Error saving image: " + e.getMessage());
+            Log.error("couldn't save image", e);
         }
     }
 
+    // saveImage on the executor. The image must not be modified until the returned future completes.
+    public static CompletableFuture<Void> saveImageAsync(BufferedImage image, String filename, Executor executor) {
+        return CompletableFuture.runAsync(() -> saveImage(image, filename), executor);
+    }
+
+    // An ARGB image backed by data, without copying it
+    public static BufferedImage wrap(int[] data, int width, int height) {
+        DirectColorModel model = (DirectColorModel) ColorModel.getRGBdefault();
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(data, data.length), width, height, width,
+                model.getMasks(), null);
+        return new BufferedImage(model, raster, false, null);
+    }
+
     public record RenderResult(int[] bitmap, int width, int height) {
     }
     
@@ -64,35 +83,54 @@ public final class Graphics {
                 isometricRender(state, MX, MY, MZ, colors, pixelsize, MARGIN);
     }
     
+    // render() straight into an image, ready for saveImage
+    public static BufferedImage renderImage(byte[] state, int MX, int MY, int MZ, int[] colors, int pixelsize, int MARGIN) {
+        if (MZ != 1) {
+            RenderResult result = isometricRender(state, MX, MY, MZ, colors, pixelsize, MARGIN);
+            return wrap(result.bitmap(), result.width(), result.height());
+        }
+        BufferedImage image = new BufferedImage(MARGIN + MX * pixelsize, MY * pixelsize, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        bitmapFill(pixels, state, MX, MY, colors, pixelsize, MARGIN);
+        return image;
+    }
+
     public static RenderResult bitmapRender(byte[] state, int MX, int MY, int[] colors, int pixelsize, int MARGIN) {
         int WIDTH = MARGIN + MX * pixelsize;
         int HEIGHT = MY * pixelsize;
 
         int[] bitmap = new int[WIDTH * HEIGHT];
-        int BACKGROUND = 0xFF222222; // Default background color
-        Arrays.fill(bitmap, BACKGROUND);
-        
-        int DX = 0;
-        int DY = 0;
-        
-        for (int y = 0; y < MY; y++) {
-            for (int x = 0; x < MX; x++) {
-                int c = colors[state[x + y * MX]];
-                for (int dy = 0; dy < pixelsize; dy++) {
-                    for (int dx = 0; dx < pixelsize; dx++) {
-                        int SX = DX + x * pixelsize + dx;
-                        int SY = DY + y * pixelsize + dy;
-                        if (SX < 0 || SX >= WIDTH - MARGIN || SY < 0 || SY >= HEIGHT) {
-                            continue;
-                        }
-                        bitmap[MARGIN + SX + SY * WIDTH] = c;
-                    }
-                }
-            }
-        }
-        
+        bitmapFill(bitmap, state, MX, MY, colors, pixelsize, MARGIN);
         return new RenderResult(bitmap, WIDTH, HEIGHT);
     }
+
+    private static final int BACKGROUND = 0xFF222222;
+    // Images with fewer pixels are drawn on the calling thread
+    private static final int PARALLEL_PIXELS = 1 << 18;
+
+    // Every cell covers a pixelsize square. Each grid row is drawn as one pixel row, which is then copied to the
+    // pixelsize - 1 rows below it. Grid rows write disjoint pixel rows, so large images draw them in parallel.
+    private static void bitmapFill(int[] pixels, byte[] state, int MX, int MY, int[] colors, int pixelsize, int MARGIN) {
+        int WIDTH = MARGIN + MX * pixelsize;
+        if (pixels.length >= PARALLEL_PIXELS) {
+            IntStream.range(0, MY).parallel().forEach(y -> bitmapRow(pixels, state, MX, y, colors, pixelsize, MARGIN, WIDTH));
+        } else {
+            for (int y = 0; y < MY; y++) bitmapRow(pixels, state, MX, y, colors, pixelsize, MARGIN, WIDTH);
+        }
+    }
+
+    private static void bitmapRow(int[] pixels, byte[] state, int MX, int y, int[] colors, int pixelsize, int MARGIN, int WIDTH) {
+        int row = y * pixelsize * WIDTH;
+        Arrays.fill(pixels, row, row + MARGIN, BACKGROUND);
+        int i = row + MARGIN;
+        for (int x = 0; x < MX; x++) {
+            int c = colors[state[x + y * MX]];
+            for (int dx = 0; dx < pixelsize; dx++) pixels[i++] = c;
+        }
+        for (int dy = 1; dy < pixelsize; dy++) {
+            System.arraycopy(pixels, row, pixels, row + dy * WIDTH, WIDTH);
+        }
+    }
     
     private static final Map<Integer, Sprite> sprites = new HashMap<>();
     
@@ -154,7 +192,6 @@ public final class Graphics {
         int HEIGHT = FITHEIGHT + 2 * blocksize;
         
         int[] screen = new int[(MARGIN + WIDTH) * HEIGHT];
-        int BACKGROUND = 0xFF222222;
         Arrays.fill(screen, BACKGROUND);
         
         Sprite sprite = sprites.get(blocksize);
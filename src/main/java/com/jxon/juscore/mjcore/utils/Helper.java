@@ -14,20 +14,21 @@ public final class Helper {
     public record OrdsResult(byte[] result, int count) {
     }
     
-    public static OrdsResult ords(int[] data, List<Integer> uniques) {
+    public static OrdsResult ords(int[] data, OrdinalMap uniques) {
         byte[] result = new byte[data.length];
         if (uniques == null) {
-            uniques = new ArrayList<>();
+            uniques = new OrdinalMap();
         }
-        
+
+        // runs of equal pixels are common in samples and tiles, so skip the lookup for repeats
+        int last = 0, lastOrd = -1;
         for (int i = 0; i < data.length; i++) {
             int d = data[i];
-            int ord = uniques.indexOf(d);
-            if (ord == -1) {
-                ord = uniques.size();
-                uniques.add(d);
+            if (lastOrd < 0 || d != last) {
+                last = d;
+                lastOrd = uniques.ordinal(d);
             }
-            result[i] = (byte) ord;
+            result[i] = (byte) lastOrd;
         }
         return new OrdsResult(result, uniques.size());
     }
@@ -0,0 +1,64 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import com.jxon.juscore.Juscore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Levelled logging for the generator, written to the mod's logger. Messages use SLF4J {} placeholders, so a
+// disabled level costs a level check and no string building. Loops that log per element, or arguments that are
+// expensive to compute, should be wrapped in isDebugEnabled.
+//
+// The logger is looked up by the mod id rather than through Juscore.LOGGER, so that the generator can run
+// outside of the game without loading the mod initializer class.
+public final class Log {
+
+    private Log() {} // Prevent instantiation
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Juscore.MOD_ID);
+
+    public static boolean isDebugEnabled() {
+        return LOGGER.isDebugEnabled();
+    }
+
+    public static void debug(String message) {
+        LOGGER.debug(message);
+    }
+
+    public static void debug(String format, Object argument) {
+        LOGGER.debug(format, argument);
+    }
+
+    public static void debug(String format, Object first, Object second) {
+        LOGGER.debug(format, first, second);
+    }
+
+    public static void debug(String format, Object... arguments) {
+        LOGGER.debug(format, arguments);
+    }
+
+    public static void info(String message) {
+        LOGGER.info(message);
+    }
+
+    public static void warn(String message) {
+        LOGGER.warn(message);
+    }
+
+    public static void warn(String format, Object argument) {
+        LOGGER.warn(format, argument);
+    }
+
+    public static void warn(String format, Object first, Object second) {
+        LOGGER.warn(format, first, second);
+    }
+
+    public static void error(String message) {
+        LOGGER.error(message);
+    }
+
+    public static void error(String message, Throwable throwable) {
+        LOGGER.error(message, throwable);
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import java.util.Arrays;
+
+// Assigns consecutive ordinals to distinct int values in order of first appearance. Open addressing
+// with linear probing; one instance can be shared across several Helper.ords calls, e.g. a whole tileset.
+public final class OrdinalMap {
+    private int[] keys, ordinals;
+    private int[] uniques;
+    private int size, mask;
+
+    public OrdinalMap() {
+        this(16);
+    }
+
+    public OrdinalMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[capacity];
+        ordinals = new int[capacity];
+        uniques = new int[Math.max(4, expected)];
+        mask = capacity - 1;
+    }
+
+    public int ordinal(int key) {
+        int slot = mix(key) & mask;
+        while (true) {
+            int stored = ordinals[slot];
+            if (stored == 0) break;
+            if (keys[slot] == key) return stored - 1;
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == uniques.length) uniques = Arrays.copyOf(uniques, size * 2);
+        uniques[size] = key;
+        keys[slot] = key;
+        ordinals[slot] = ++size;
+        if (size * 2 > keys.length) rehash();
+        return size - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int ordinal) {
+        return uniques[ordinal];
+    }
+
+    private void rehash() {
+        int capacity = keys.length * 2;
+        keys = new int[capacity];
+        ordinals = new int[capacity];
+        mask = capacity - 1;
+        for (int k = 0; k < size; k++) {
+            int slot = mix(uniques[k]) & mask;
+            while (ordinals[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = uniques[k];
+            ordinals[slot] = k + 1;
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,207 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import com.jxon.juscore.mjcore.models.Observation;
+import com.jxon.juscore.mjcore.models.Rule;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Hash-distributed best-first search. Every state is owned by the worker selected by its content hash; that
+// worker keeps it in its own state store and frontier. Children owned by other workers are sent to them through
+// lock-free inboxes. Boards refer to their parents by global index = local index * workers + worker.
+//
+// Workers expand states in whatever order the threads happen to run, so unlike Search.run the trajectory found
+// is not determined by the seed alone.
+final class ParallelSearch {
+
+    private ParallelSearch() {} // Prevent instantiation
+
+    private static final long IDLE_WAIT = 20_000;
+
+    private record Message(byte[] state, long hash, int parent, int depth) {
+    }
+
+    private record FrontierItem(int index, double priority) {
+    }
+
+    private static final class Shared {
+        final int workers, limit;
+        final Worker[] all;
+        // Workers that are not idle plus messages that have been sent and not taken yet. When it drops to
+        // zero nothing can produce further work.
+        final AtomicInteger active;
+        final AtomicInteger states = new AtomicInteger();
+        final AtomicLong found = new AtomicLong(-1);
+        volatile boolean stop;
+
+        Shared(int workers, int limit) {
+            this.workers = workers;
+            this.limit = limit;
+            all = new Worker[workers];
+            active = new AtomicInteger(workers);
+        }
+    }
+
+    private static final class Worker implements Runnable {
+        final Shared shared;
+        final int id;
+        final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+        final List<Board> database = new ArrayList<>();
+        final StateStore visited;
+        final PriorityQueue<FrontierItem> frontier = new PriorityQueue<>(Comparator.comparingDouble(item -> item.priority));
+        final Random random;
+
+        final int[] future;
+        final Rule[] rules;
+        final int MX, MY, MZ;
+        final boolean all;
+        final double depthCoefficient;
+        final int[][] bpotentials, fpotentials;
+
+        Worker(Shared shared, int id, int[] future, Rule[] rules, int MX, int MY, int MZ, int C, boolean all,
+               double depthCoefficient, int[][] bpotentials, int seed) {
+            this.shared = shared;
+            this.id = id;
+            this.future = future;
+            this.rules = rules;
+            this.MX = MX;
+            this.MY = MY;
+            this.MZ = MZ;
+            this.all = all;
+            this.depthCoefficient = depthCoefficient;
+            this.bpotentials = bpotentials;
+            fpotentials = AH.array2D(C, future.length, -1);
+            visited = new StateStore(future.length, C);
+            random = new Random(seed + id);
+        }
+
+        @Override
+        public void run() {
+            boolean idle = false;
+            while (!shared.stop) {
+                Message message = inbox.poll();
+                if (message != null) {
+                    if (idle) idle = false;
+                    else shared.active.decrementAndGet();
+                    receive(message.state, message.hash, message.parent, message.depth);
+                } else if (!idle && !frontier.isEmpty()) {
+                    expand(Objects.requireNonNull(frontier.poll()).index);
+                } else if (!idle) {
+                    idle = true;
+                    if (shared.active.decrementAndGet() == 0) shared.stop = true;
+                } else if (shared.active.get() == 0) {
+                    shared.stop = true;
+                } else {
+                    LockSupport.parkNanos(IDLE_WAIT);
+                }
+            }
+        }
+
+        void expand(int index) {
+            Board board = database.get(index);
+            byte[] state = visited.get(index);
+            int parent = index * shared.workers + id;
+            Iterable<byte[]> children = all ? Search.allChildStates(state, MX, MY, rules, bpotentials) : Search.oneChildStates(state, MX, MY, rules);
+
+            for (byte[] child : children) {
+                if (shared.stop) return;
+                long hash = StateStore.hash(child);
+                int owner = (int) Long.remainderUnsigned(hash, shared.workers);
+                if (owner == id) {
+                    receive(child, hash, parent, board.depth + 1);
+                } else {
+                    shared.active.incrementAndGet();
+                    shared.all[owner].inbox.offer(new Message(child, hash, parent, board.depth + 1));
+                }
+            }
+        }
+
+        void receive(byte[] state, long hash, int parent, int depth) {
+            int index = visited.find(state, hash);
+            if (index >= 0) {
+                Board old = database.get(index);
+                if (depth < old.depth) {
+                    old.depth = depth;
+                    old.parentIndex = parent;
+                    if (old.backwardEstimate >= 0 && old.forwardEstimate >= 0) {
+                        frontier.offer(new FrontierItem(index, old.rank(random, depthCoefficient)));
+                    }
+                }
+                return;
+            }
+
+            int backwardEstimate = Observation.backwardPointwise(bpotentials, state);
+            Observation.computeForwardPotentials(fpotentials, state, MX, MY, MZ, rules);
+            int forwardEstimate = Observation.forwardPointwise(fpotentials, future);
+            if (backwardEstimate < 0 || forwardEstimate < 0) return;
+
+            if (shared.states.incrementAndGet() > shared.limit && shared.limit >= 0) {
+                shared.stop = true;
+                return;
+            }
+
+            Board board = new Board(parent, depth, backwardEstimate, forwardEstimate);
+            database.add(board);
+            index = visited.add(state, hash);
+
+            if (forwardEstimate == 0) {
+                if (shared.found.compareAndSet(-1, (long) index * shared.workers + id)) shared.stop = true;
+            } else {
+                frontier.offer(new FrontierItem(index, board.rank(random, depthCoefficient)));
+            }
+        }
+    }
+
+    static byte[][] run(byte[] present, int[] future, Rule[] rules, int MX, int MY, int MZ, int C, boolean all,
+                        int limit, double depthCoefficient, int seed, int threads, int[][] bpotentials,
+                        int rootBackwardEstimate, int rootForwardEstimate) {
+        Shared shared = new Shared(threads, limit);
+        for (int k = 0; k < threads; k++) {
+            shared.all[k] = new Worker(shared, k, future, rules, MX, MY, MZ, C, all, depthCoefficient, bpotentials, seed);
+        }
+
+        long rootHash = StateStore.hash(present);
+        Worker rootOwner = shared.all[(int) Long.remainderUnsigned(rootHash, threads)];
+        Board root = new Board(-1, 0, rootBackwardEstimate, rootForwardEstimate);
+        rootOwner.database.add(root);
+        rootOwner.visited.add(present, rootHash);
+        rootOwner.frontier.offer(new FrontierItem(0, root.rank(rootOwner.random, depthCoefficient)));
+        shared.states.set(1);
+
+        Thread[] pool = new Thread[threads];
+        for (int k = 0; k < threads; k++) {
+            pool[k] = new Thread(shared.all[k], "search-worker-" + k);
+            pool[k].setDaemon(true);
+            pool[k].start();
+        }
+        try {
+            for (Thread thread : pool) thread.join();
+        } catch (InterruptedException e) {
+            shared.stop = true;
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        long found = shared.found.get();
+        if (found < 0) return null;
+
+        List<byte[]> trajectory = new ArrayList<>();
+        for (int ref = (int) found; ref >= 0; ) {
+            Worker worker = shared.all[ref % threads];
+            int index = ref / threads;
+            Board board = worker.database.get(index);
+            if (board.parentIndex < 0) break;
+            trajectory.add(worker.visited.get(index));
+            ref = board.parentIndex;
+        }
+        Collections.reverse(trajectory);
+
+        Log.debug("found a trajectory of length {}, visited {} states", trajectory.size(), shared.states.get());
+        return trajectory.toArray(new byte[0][]);
+    }
+}
@@ -0,0 +1,80 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Content-addressed store for tables derived from sample images. Entries are keyed by a digest of the
+// sample bytes and every parameter that affects the derivation, so an edited sample simply misses.
+public final class PatternCache {
+
+    private PatternCache() {} // Prevent instantiation
+
+    private static final int VERSION = 1;
+
+    public static volatile boolean enabled = true;
+    public static volatile Path directory = Paths.get("resources", "cache");
+
+    @FunctionalInterface
+    public interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public static String key(String filename, Object... parameters) {
+        if (!enabled) return null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Files.readAllBytes(Paths.get(filename)));
+            StringBuilder sb = new StringBuilder().append(VERSION);
+            for (Object parameter : parameters) sb.append('|').append(parameter);
+            digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    // Returns false on a miss or an unreadable entry, in which case the caller derives the tables itself.
+    public static boolean load(String key, Reader reader) {
+        if (key == null) return false;
+        Path path = directory.resolve(key + ".bin");
+        if (!Files.isRegularFile(path)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(path))))) {
+            reader.read(in);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    public static void save(String key, Writer writer) {
+        if (key == null) return;
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(temp))))) {
+                writer.write(out);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, directory.resolve(key + ".bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("couldn't write pattern cache entry {}: {}", key, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+// Counter-based generator Philox4x32-10 (Salmon et al., "Parallel random numbers: as easy as 1, 2, 3"). A draw is a
+// keyed bijection of a 128-bit counter, so the value for a counter does not depend on which other draws were made
+// before it, or on which thread makes it. Nodes use the four counter words as (step, cell, rule, node).
+//
+// Instances are immutable and can be shared between threads.
+public final class Philox {
+    private static final int M0 = 0xD2511F53, M1 = 0xCD9E8D57;
+    private static final int W0 = 0x9E3779B9, W1 = 0xBB67AE85;
+
+    private final int key0, key1;
+
+    public Philox(long seed) {
+        key0 = (int) seed;
+        key1 = (int) (seed >>> 32);
+    }
+
+    // First 64 bits of the block for the given counter
+    public long bits(int c0, int c1, int c2, int c3) {
+        int k0 = key0, k1 = key1;
+        for (int round = 0; round < 10; round++) {
+            long p0 = (M0 & 0xFFFFFFFFL) * (c0 & 0xFFFFFFFFL);
+            long p1 = (M1 & 0xFFFFFFFFL) * (c2 & 0xFFFFFFFFL);
+            int n0 = (int) (p1 >>> 32) ^ c1 ^ k0;
+            int n2 = (int) (p0 >>> 32) ^ c3 ^ k1;
+            c1 = (int) p1;
+            c3 = (int) p0;
+            c0 = n0;
+            c2 = n2;
+            k0 += W0;
+            k1 += W1;
+        }
+        return ((long) c0 << 32) | (c1 & 0xFFFFFFFFL);
+    }
+
+    // Uniform in [0, 1)
+    public double uniform(int c0, int c1, int c2, int c3) {
+        return (bits(c0, c1, c2, c3) >>> 11) * 0x1.0p-53;
+    }
+
+    // Uniform in [0, bound), by multiplying 32 random bits with bound. The bias is below bound / 2^32, which is
+    // negligible for grid-sized bounds.
+    public int nextInt(int bound, int c0, int c1, int c2, int c3) {
+        return (int) (((bits(c0, c1, c2, c3) >>> 32) * bound) >>> 32);
+    }
+}
@@ -1,13 +1,13 @@
 package com.jxon.juscore.mjcore.utils;
 
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 public final class RandomHelper {
 
     private RandomHelper() {} // Prevent instantiation
 
-    public static <T> T random(List<T> list, Random random) {
+    public static <T> T random(List<T> list, RandomGenerator random) {
         return list.get(random.nextInt(list.size()));
     }
 
@@ -29,7 +29,7 @@ public final class RandomHelper {
     }
 
     // 修正：保持与C#原版完全一致的实现
-    public static void shuffle(int[] array, Random random) {
+    public static void shuffle(int[] array, RandomGenerator random) {
         for (int i = 0; i < array.length; i++) {
             int j = random.nextInt(i + 1);
             int temp = array[i];  // 保存临时值
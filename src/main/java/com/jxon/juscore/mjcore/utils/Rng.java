@@ -0,0 +1,157 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import java.util.random.RandomGenerator;
+
+// Random number source of the interpreter. Unlike java.util.Random, generators keep their state in plain fields,
+// so a draw costs no atomic update; an Rng must therefore not be shared between threads. Parallel workers take
+// their own stream through split(), which is a deterministic function of the parent's state.
+public abstract class Rng implements RandomGenerator {
+
+    public enum Kind {
+        // The sequence of java.util.Random for the same seed, so outputs for existing seeds do not change
+        COMPATIBLE,
+        // xoshiro256**, faster and of better quality, but with different outputs for the same seed
+        XOSHIRO,
+        // Sequential draws as XOSHIRO, while prl, convolution and convchain nodes draw from a Philox keyed by the
+        // seed, with (step, cell, rule, node) as the counter. Their results then do not depend on the order in
+        // which cells are visited.
+        COUNTER;
+
+        public Rng create(long seed) {
+            return this == COMPATIBLE ? new Compatible(seed) : new Xoshiro(seed);
+        }
+    }
+
+    @Override
+    public abstract int nextInt();
+
+    // Uniform in [0, bound)
+    @Override
+    public abstract int nextInt(int bound);
+
+    // Uniform in [0, 1)
+    @Override
+    public abstract double nextDouble();
+
+    @Override
+    public abstract long nextLong();
+
+    // A new generator of the same kind whose sequence is independent of the rest of this one. Advances this
+    // generator.
+    public abstract Rng split();
+
+    // java.util.Random's linear congruential generator without the AtomicLong
+    public static final class Compatible extends Rng {
+        private static final long MULTIPLIER = 0x5DEECE66DL, ADDEND = 0xBL, MASK = (1L << 48) - 1;
+
+        private long seed;
+
+        public Compatible(long seed) {
+            this.seed = (seed ^ MULTIPLIER) & MASK;
+        }
+
+        private int next(int bits) {
+            seed = (seed * MULTIPLIER + ADDEND) & MASK;
+            return (int) (seed >>> (48 - bits));
+        }
+
+        @Override
+        public int nextInt() {
+            return next(32);
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+            int r = next(31);
+            int m = bound - 1;
+            if ((bound & m) == 0) {
+                r = (int) ((bound * (long) r) >> 31);
+            } else {
+                for (int u = r; u - (r = u % bound) + m < 0; u = next(31)) {
+                }
+            }
+            return r;
+        }
+
+        @Override
+        public double nextDouble() {
+            return (((long) next(26) << 27) + next(27)) * 0x1.0p-53;
+        }
+
+        @Override
+        public long nextLong() {
+            return ((long) next(32) << 32) + next(32);
+        }
+
+        @Override
+        public Rng split() {
+            return new Compatible(mix64(nextLong()));
+        }
+    }
+
+    // xoshiro256** by Blackman and Vigna, seeded through SplitMix64
+    public static final class Xoshiro extends Rng {
+        private long s0, s1, s2, s3;
+
+        public Xoshiro(long seed) {
+            s0 = mix64(seed += GOLDEN_GAMMA);
+            s1 = mix64(seed += GOLDEN_GAMMA);
+            s2 = mix64(seed += GOLDEN_GAMMA);
+            s3 = mix64(seed + GOLDEN_GAMMA);
+        }
+
+        @Override
+        public long nextLong() {
+            long result = Long.rotateLeft(s1 * 5, 7) * 9;
+            long t = s1 << 17;
+            s2 ^= s0;
+            s3 ^= s1;
+            s1 ^= s2;
+            s0 ^= s3;
+            s2 ^= t;
+            s3 = Long.rotateLeft(s3, 45);
+            return result;
+        }
+
+        @Override
+        public int nextInt() {
+            return (int) (nextLong() >>> 32);
+        }
+
+        // Lemire's multiply and reject, unbiased
+        @Override
+        public int nextInt(int bound) {
+            if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+            long m = (nextLong() >>> 32) * bound;
+            if ((m & 0xFFFFFFFFL) < bound) {
+                long threshold = (0x100000000L - bound) % bound;
+                while ((m & 0xFFFFFFFFL) < threshold) {
+                    m = (nextLong() >>> 32) * bound;
+                }
+            }
+            return (int) (m >>> 32);
+        }
+
+        @Override
+        public double nextDouble() {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        @Override
+        public Rng split() {
+            return new Xoshiro(nextLong());
+        }
+    }
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // SplitMix64 finalizer
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -13,30 +13,77 @@ public final class Search {
 
     public static byte[][] run(byte[] present, int[] future, Rule[] rules, int MX, int MY, int MZ, int C,
                                boolean all, int limit, double depthCoefficient, int seed) {
+        return run(present, future, rules, MX, MY, MZ, C, all, limit, depthCoefficient, seed, 1);
+    }
+
+    // With threads > 1 the state space is searched by ParallelSearch
+    public static byte[][] run(byte[] present, int[] future, Rule[] rules, int MX, int MY, int MZ, int C,
+                               boolean all, int limit, double depthCoefficient, int seed, int threads) {
+        return run(present, future, rules, MX, MY, MZ, C, all, limit, depthCoefficient, seed, threads, Strategy.BEST, 0, 0);
+    }
+
+    public enum Strategy {
+        // Best-first search over every state generated
+        BEST,
+        // Keeps the best width states of each depth
+        BEAM,
+        // Iterative-deepening A*
+        IDA
+    }
+
+    // BEAM and IDA remember visited states in a transposition table of tableSize entries and run on one thread
+    public static byte[][] run(byte[] present, int[] future, Rule[] rules, int MX, int MY, int MZ, int C,
+                               boolean all, int limit, double depthCoefficient, int seed, int threads,
+                               Strategy strategy, int width, int tableSize) {
         int[][] bpotentials = AH.array2D(C, present.length, -1);
         int[][] fpotentials = AH.array2D(C, present.length, -1);
+        // Children are evaluated incrementally from the potentials of their parent. The potentials of the last
+        // stored child are kept aside, since the best-first order often expands it next.
+        int[][] parentPotentials = AH.array2D(C, present.length, -1);
+        int[][] lastPotentials = AH.array2D(C, present.length, -1);
+        int lastIndex = -1;
+        // Whether a repair is cheaper than a full evaluation depends on how far the changes of a model reach, so
+        // both are timed and the cheaper one is used. The potentials are the same either way.
+        double fullCost, repairCost = 0, branching = 1;
+        int expansions = 0;
 
         Observation.computeBackwardPotentials(bpotentials, future, MX, MY, MZ, rules);
         int rootBackwardEstimate = Observation.backwardPointwise(bpotentials, present);
+        long start = System.nanoTime();
         Observation.computeForwardPotentials(fpotentials, present, MX, MY, MZ, rules);
+        fullCost = System.nanoTime() - start;
         int rootForwardEstimate = Observation.forwardPointwise(fpotentials, future);
 
         if (rootBackwardEstimate < 0 || rootForwardEstimate < 0) {
-            System.out.println("INCORRECT PROBLEM");
+            Log.warn("INCORRECT PROBLEM");
             return null;
         }
 
-        System.out.println("root estimate = (" + rootBackwardEstimate + ", " + rootForwardEstimate + ")");
+        Log.debug("root estimate = ({}, {})", rootBackwardEstimate, rootForwardEstimate);
         if (rootBackwardEstimate == 0) {
             return new byte[0][];
         }
 
-        Board rootBoard = new Board(present.clone(), -1, 0, rootBackwardEstimate, rootForwardEstimate);
+        if (strategy == Strategy.BEAM) {
+            return BoundedSearch.beam(present, future, rules, MX, MY, MZ, C, all, limit, depthCoefficient, seed,
+                    width, tableSize, bpotentials);
+        } else if (strategy == Strategy.IDA) {
+            return BoundedSearch.ida(present, future, rules, MX, MY, MZ, C, all, limit, depthCoefficient, seed,
+                    tableSize, bpotentials, rootBackwardEstimate, rootForwardEstimate);
+        }
 
+        if (threads > 1) {
+            return ParallelSearch.run(present, future, rules, MX, MY, MZ, C, all, limit, depthCoefficient, seed, threads,
+                    bpotentials, rootBackwardEstimate, rootForwardEstimate);
+        }
+
+        Board rootBoard = new Board(-1, 0, rootBackwardEstimate, rootForwardEstimate);
+
+        // database holds the search tree; the state of database[k] is visited.get(k)
         List<Board> database = new ArrayList<>();
         database.add(rootBoard);
-        Map<byte[], Integer> visited = new HashMap<>();
-        visited.put(present, 0);
+        StateStore visited = new StateStore(present.length, C);
+        visited.add(present, StateStore.hash(present));
 
         PriorityQueue<FrontierItem> frontier = new PriorityQueue<>(Comparator.comparingDouble(item -> item.priority));
         Random random = new Random(seed);
@@ -48,13 +95,25 @@ public final class Search {
             int parentIndex = Objects.requireNonNull(frontier.poll()).index;
             frontierLength--;
             Board parentBoard = database.get(parentIndex);
-
-            List<byte[]> children = all ? allChildStates(parentBoard.state, MX, MY, rules) :
-                    oneChildStates(parentBoard.state, MX, MY, rules);
+            byte[] parentState = visited.get(parentIndex);
+
+            Iterable<byte[]> children = all ? allChildStates(parentState, MX, MY, rules, bpotentials) :
+                    oneChildStates(parentState, MX, MY, rules);
+            boolean parentComputed = parentIndex == lastIndex;
+            if (parentComputed) {
+                int[][] swap = parentPotentials;
+                parentPotentials = lastPotentials;
+                lastPotentials = swap;
+                lastIndex = -1;
+            }
+            boolean repair = repairCost == 0 || (++expansions & 31) == 0 ||
+                    (parentComputed ? repairCost < fullCost : branching * repairCost + fullCost < branching * fullCost);
+            int evaluated = 0;
 
             for (byte[] childState : children) {
-                Integer childIndex = visited.get(childState);
-                if (childIndex != null) {
+                long childHash = StateStore.hash(childState);
+                int childIndex = visited.find(childState, childHash);
+                if (childIndex >= 0) {
                     Board oldBoard = database.get(childIndex);
                     if (parentBoard.depth + 1 < oldBoard.depth) {
                         oldBoard.depth = parentBoard.depth + 1;
@@ -67,43 +126,66 @@ public final class Search {
                     }
                 } else {
                     int childBackwardEstimate = Observation.backwardPointwise(bpotentials, childState);
-                    Observation.computeForwardPotentials(fpotentials, childState, MX, MY, MZ, rules);
+                    if (childBackwardEstimate < 0) {
+                        continue;
+                    }
+                    evaluated++;
+                    if (repair && !parentComputed) {
+                        start = System.nanoTime();
+                        Observation.computeForwardPotentials(parentPotentials, parentState, MX, MY, MZ, rules);
+                        fullCost = 0.9 * fullCost + 0.1 * (System.nanoTime() - start);
+                        parentComputed = true;
+                    }
+                    start = System.nanoTime();
+                    if (repair) {
+                        Observation.computeForwardPotentials(fpotentials, parentPotentials, parentState, childState, MX, MY, MZ, rules);
+                        long elapsed = System.nanoTime() - start;
+                        repairCost = repairCost == 0 ? elapsed : 0.9 * repairCost + 0.1 * elapsed;
+                    } else {
+                        Observation.computeForwardPotentials(fpotentials, childState, MX, MY, MZ, rules);
+                        fullCost = 0.9 * fullCost + 0.1 * (System.nanoTime() - start);
+                    }
                     int childForwardEstimate = Observation.forwardPointwise(fpotentials, future);
 
-                    if (childBackwardEstimate < 0 || childForwardEstimate < 0) {
+                    if (childForwardEstimate < 0) {
                         continue;
                     }
 
-                    Board childBoard = new Board(childState, parentIndex, parentBoard.depth + 1,
+                    Board childBoard = new Board(parentIndex, parentBoard.depth + 1,
                             childBackwardEstimate, childForwardEstimate);
                     database.add(childBoard);
-                    childIndex = database.size() - 1;
-                    visited.put(childBoard.state, childIndex);
+                    childIndex = visited.add(childState, childHash);
+
+                    int[][] swap = lastPotentials;
+                    lastPotentials = fpotentials;
+                    fpotentials = swap;
+                    lastIndex = childIndex;
 
                     if (childBoard.forwardEstimate == 0) {
-                        System.out.println("found a trajectory of length " + (parentBoard.depth + 1) +
-                                ", visited " + visited.size() + " states");
-                        List<Board> trajectory = Board.trajectory(childIndex, database);
+                        Log.debug("found a trajectory of length {}, visited {} states", parentBoard.depth + 1, visited.size());
+                        List<Integer> trajectory = Board.trajectory(childIndex, database);
                         Collections.reverse(trajectory);
-                        return trajectory.stream().map(b -> b.state).toArray(byte[][]::new);
+                        return trajectory.stream().map(visited::get).toArray(byte[][]::new);
                     } else {
                         if (limit < 0 && childBackwardEstimate + childForwardEstimate <= record) {
                             record = childBackwardEstimate + childForwardEstimate;
-                            System.out.println("found a state of record estimate " + record + " = " +
-                                    childBackwardEstimate + " + " + childForwardEstimate);
-                            print(childState, MX, MY);
+                            if (Log.isDebugEnabled()) {
+                                Log.debug("found a state of record estimate {} = {} + {}", record, childBackwardEstimate, childForwardEstimate);
+                                Log.debug(print(childState, MX, MY));
+                            }
                         }
                         frontier.offer(new FrontierItem(childIndex, childBoard.rank(random, depthCoefficient)));
                         frontierLength++;
                     }
                 }
             }
+            branching = 0.9 * branching + 0.1 * evaluated;
         }
 
         return null;
     }
 
-    private static List<byte[]> oneChildStates(byte[] state, int MX, int MY, Rule[] rules) {
+    static List<byte[]> oneChildStates(byte[] state, int MX, int MY, Rule[] rules) {
         List<byte[]> result = new ArrayList<>();
         for (Rule rule : rules) {
             for (int y = 0; y < MY; y++) {
@@ -151,14 +233,16 @@ public final class Search {
         return result;
     }
 
-    private static void print(byte[] state, int MX, int MY) {
+    private static String print(byte[] state, int MX, int MY) {
         char[] characters = {'.', 'R', 'W', '#', 'a', '!', '?', '%', '0', '1', '2', '3', '4', '5'};
+        StringBuilder sb = new StringBuilder();
         for (int y = 0; y < MY; y++) {
+            sb.append('\n');
             for (int x = 0; x < MX; x++) {
-                System.out.print(characters[state[x + y * MX]] + " ");
+                sb.append(characters[state[x + y * MX]]).append(' ');
             }
-            System.out.println();
         }
+        return sb.toString();
     }
 
     public static boolean isInside(Rule.Tuple3 p, Rule rule, int x, int y) {
@@ -166,145 +250,216 @@ public final class Search {
     }
 
     public static boolean overlap(Rule rule0, int x0, int y0, Rule rule1, int x1, int y1) {
-        for (int dy = 0; dy < rule0.IMY; dy++) {
-            for (int dx = 0; dx < rule0.IMX; dx++) {
-                if (isInside(new Rule.Tuple3(x0 + dx, y0 + dy, 0), rule1, x1, y1)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return x0 < x1 + rule1.IMX && x1 < x0 + rule0.IMX && y0 < y1 + rule1.IMY && y1 < y0 + rule0.IMY;
+    }
+
+    public static Iterable<byte[]> allChildStates(byte[] state, int MX, int MY, Rule[] rules) {
+        return allChildStates(state, MX, MY, rules, null);
+    }
+
+    // Children are generated lazily, one maximal set of non-overlapping matches at a time, in the same order as a
+    // recursive enumeration. With bpotentials given, a match that writes a color from which the future cannot be
+    // reached is not tried, since every child containing it would be discarded.
+    public static Iterable<byte[]> allChildStates(byte[] state, int MX, int MY, Rule[] rules, int[][] bpotentials) {
+        return () -> new Combinations(state, MX, MY, rules, bpotentials);
     }
 
-    public static List<byte[]> allChildStates(byte[] state, int MX, int MY, Rule[] rules) {
-        List<RuleTileMatch> list = new ArrayList<>();
-        int[] amounts = new int[state.length];
-
-        for (int i = 0; i < state.length; i++) {
-            int x = i % MX, y = i / MX;
-            for (Rule rule : rules) {
-                if (matches(rule, x, y, state, MX, MY)) {
-                    list.add(new RuleTileMatch(rule, i));
-                    for (int dy = 0; dy < rule.IMY; dy++) {
-                        for (int dx = 0; dx < rule.IMX; dx++) {
-                            amounts[x + dx + (y + dy) * MX]++;
+    private static final class Combinations implements Iterator<byte[]> {
+        final byte[] state;
+        final int MX;
+        final int[][] bpotentials;
+
+        final Rule[] tileRules;
+        final int[] tileCells;
+        // cellTiles[cellStart[i]..cellStart[i+1]) are the tiles covering cell i, in tile order
+        final int[] cellStart, cellTiles;
+        final int[] amounts;
+        final boolean[] mask;
+        final int[] stamp;
+        int epoch;
+
+        // Frame d holds the tiles covering the cell chosen at depth d, the position of the next one to try and the
+        // tiles hidden by the current choice, which is solution[d]
+        int[][] covers = new int[8][], hidden = new int[8][];
+        int[] positions = new int[8], hiddenCounts = new int[8], solution = new int[8];
+        int depth = -1;
+        boolean descend = true;
+        byte[] next;
+
+        Combinations(byte[] state, int MX, int MY, Rule[] rules, int[][] bpotentials) {
+            this.state = state;
+            this.MX = MX;
+            this.bpotentials = bpotentials;
+
+            List<Rule> ruleList = new ArrayList<>();
+            List<Integer> cellList = new ArrayList<>();
+            amounts = new int[state.length];
+            for (int i = 0; i < state.length; i++) {
+                int x = i % MX, y = i / MX;
+                for (Rule rule : rules) {
+                    if (matches(rule, x, y, state, MX, MY)) {
+                        ruleList.add(rule);
+                        cellList.add(i);
+                        for (int dy = 0; dy < rule.IMY; dy++) {
+                            for (int dx = 0; dx < rule.IMX; dx++) {
+                                amounts[x + dx + (y + dy) * MX]++;
+                            }
                         }
                     }
                 }
             }
+            tileRules = ruleList.toArray(new Rule[0]);
+            tileCells = cellList.stream().mapToInt(Integer::intValue).toArray();
+            mask = AH.array1D(tileRules.length, true);
+            stamp = new int[tileRules.length];
+
+            cellStart = new int[state.length + 1];
+            for (int i = 0; i < state.length; i++) cellStart[i + 1] = cellStart[i] + amounts[i];
+            cellTiles = new int[cellStart[state.length]];
+            int[] fill = Arrays.copyOf(cellStart, state.length);
+            for (int l = 0; l < tileRules.length; l++) {
+                Rule rule = tileRules[l];
+                int x = tileCells[l] % MX, y = tileCells[l] / MX;
+                for (int dy = 0; dy < rule.IMY; dy++) {
+                    for (int dx = 0; dx < rule.IMX; dx++) {
+                        cellTiles[fill[x + dx + (y + dy) * MX]++] = l;
+                    }
+                }
+            }
         }
 
-        RuleTileMatch[] tiles = list.toArray(new RuleTileMatch[0]);
-        boolean[] mask = AH.array1D(tiles.length, true);
-        List<RuleTileMatch> solution = new ArrayList<>();
-
-        List<byte[]> result = new ArrayList<>();
-        enumerate(result, solution, tiles, amounts, mask, state, MX);
-        return result;
-    }
-
-    private static void enumerate(List<byte[]> children, List<RuleTileMatch> solution, RuleTileMatch[] tiles,
-                                  int[] amounts, boolean[] mask, byte[] state, int MX) {
-        int I = Helper.maxPositiveIndex(amounts);
-        int X = I % MX, Y = I / MX;
-        if (I < 0) {
-            children.add(apply(state, solution, MX));
-            return;
+        @Override
+        public boolean hasNext() {
+            if (next == null) next = advance();
+            return next != null;
         }
 
-        List<RuleTileMatch> cover = new ArrayList<>();
-        for (int l = 0; l < tiles.length; l++) {
-            RuleTileMatch tile = tiles[l];
-            if (mask[l] && isInside(new Rule.Tuple3(X, Y, 0), tile.rule, tile.i % MX, tile.i / MX)) {
-                cover.add(tile);
-            }
+        @Override
+        public byte[] next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            byte[] result = next;
+            next = null;
+            return result;
         }
 
-        for (RuleTileMatch tile : cover) {
-            solution.add(tile);
+        private byte[] advance() {
+            while (true) {
+                if (descend) {
+                    descend = false;
+                    int I = Helper.maxPositiveIndex(amounts);
+                    if (I < 0) {
+                        byte[] result = state.clone();
+                        for (int d = 0; d <= depth; d++) {
+                            int l = solution[d];
+                            apply(tileRules[l], tileCells[l] % MX, tileCells[l] / MX, result, MX);
+                        }
+                        return result;
+                    }
 
-            List<Integer> intersecting = new ArrayList<>();
-            for (int l = 0; l < tiles.length; l++) {
-                if (mask[l]) {
-                    RuleTileMatch tile1 = tiles[l];
-                    if (overlap(tile.rule, tile.i % MX, tile.i / MX, tile1.rule, tile1.i % MX, tile1.i / MX)) {
-                        intersecting.add(l);
+                    depth++;
+                    if (depth == covers.length) grow();
+                    int count = 0;
+                    int[] cover = new int[cellStart[I + 1] - cellStart[I]];
+                    for (int k = cellStart[I]; k < cellStart[I + 1]; k++) {
+                        if (mask[cellTiles[k]]) cover[count++] = cellTiles[k];
                     }
+                    covers[depth] = Arrays.copyOf(cover, count);
+                    positions[depth] = 0;
+                    hiddenCounts[depth] = 0;
+                }
+
+                if (depth < 0) return null;
+                int[] hiddenTiles = hidden[depth];
+                for (int k = 0; k < hiddenCounts[depth]; k++) hide(hiddenTiles[k], true);
+                hiddenCounts[depth] = 0;
+
+                if (positions[depth] == covers[depth].length) {
+                    depth--;
+                    continue;
                 }
-            }
 
-            for (int l : intersecting) {
-                hide(l, false, tiles, amounts, mask, MX);
+                int l = covers[depth][positions[depth]++];
+                if (bpotentials != null && dead(l)) continue;
+                solution[depth] = l;
+                hideIntersecting(l);
+                descend = true;
             }
-            enumerate(children, solution, tiles, amounts, mask, state, MX);
-            for (int l : intersecting) {
-                hide(l, true, tiles, amounts, mask, MX);
+        }
+
+        private boolean dead(int l) {
+            Rule rule = tileRules[l];
+            int x = tileCells[l] % MX, y = tileCells[l] / MX;
+            for (int dy = 0; dy < rule.OMY; dy++) {
+                for (int dx = 0; dx < rule.OMX; dx++) {
+                    byte value = rule.output[dx + dy * rule.OMX];
+                    if (value != (byte) 0xff && bpotentials[value][x + dx + (y + dy) * MX] < 0) return true;
+                }
             }
+            return false;
+        }
 
-            solution.remove(solution.size() - 1);
+        // Hides every visible tile overlapping l, l included, found through the cover lists of its footprint
+        private void hideIntersecting(int l) {
+            if (++epoch == 0) {
+                Arrays.fill(stamp, 0);
+                epoch = 1;
+            }
+            Rule rule = tileRules[l];
+            int x = tileCells[l] % MX, y = tileCells[l] / MX;
+            int[] hiddenTiles = hidden[depth];
+            int count = 0;
+            for (int dy = 0; dy < rule.IMY; dy++) {
+                for (int dx = 0; dx < rule.IMX; dx++) {
+                    int i = x + dx + (y + dy) * MX;
+                    for (int k = cellStart[i]; k < cellStart[i + 1]; k++) {
+                        int l1 = cellTiles[k];
+                        if (mask[l1] && stamp[l1] != epoch) {
+                            stamp[l1] = epoch;
+                            if (hiddenTiles == null || count == hiddenTiles.length) {
+                                hiddenTiles = hidden[depth] = hiddenTiles == null ? new int[16] : Arrays.copyOf(hiddenTiles, count * 2);
+                            }
+                            hiddenTiles[count++] = l1;
+                        }
+                    }
+                }
+            }
+            for (int k = 0; k < count; k++) hide(hiddenTiles[k], false);
+            hiddenCounts[depth] = count;
         }
-    }
 
-    private static void hide(int l, boolean unhide, RuleTileMatch[] tiles, int[] amounts, boolean[] mask, int MX) {
-        mask[l] = unhide;
-        RuleTileMatch tile = tiles[l];
-        int x = tile.i % MX, y = tile.i / MX;
-        int incr = unhide ? 1 : -1;
+        private void hide(int l, boolean unhide) {
+            mask[l] = unhide;
+            Rule rule = tileRules[l];
+            int x = tileCells[l] % MX, y = tileCells[l] / MX;
+            int incr = unhide ? 1 : -1;
 
-        for (int dy = 0; dy < tile.rule.IMY; dy++) {
-            for (int dx = 0; dx < tile.rule.IMX; dx++) {
-                amounts[x + dx + (y + dy) * MX] += incr;
+            for (int dy = 0; dy < rule.IMY; dy++) {
+                for (int dx = 0; dx < rule.IMX; dx++) {
+                    amounts[x + dx + (y + dy) * MX] += incr;
+                }
             }
         }
+
+        private void grow() {
+            int length = covers.length * 2;
+            covers = Arrays.copyOf(covers, length);
+            hidden = Arrays.copyOf(hidden, length);
+            positions = Arrays.copyOf(positions, length);
+            hiddenCounts = Arrays.copyOf(hiddenCounts, length);
+            solution = Arrays.copyOf(solution, length);
+        }
     }
 
     private static void apply(Rule rule, int x, int y, byte[] state, int MX) {
         for (int dy = 0; dy < rule.OMY; dy++) {
             for (int dx = 0; dx < rule.OMX; dx++) {
-                state[x + dx + (y + dy) * MX] = rule.output[dx + dy * rule.OMX];
+                byte value = rule.output[dx + dy * rule.OMX];
+                if (value != (byte) 0xff) state[x + dx + (y + dy) * MX] = value;
             }
         }
     }
 
-    private static byte[] apply(byte[] state, List<RuleTileMatch> solution, int MX) {
-        byte[] result = state.clone();
-        for (RuleTileMatch tile : solution) {
-            apply(tile.rule, tile.i % MX, tile.i / MX, result, MX);
-        }
-        return result;
-    }
-
-    private record RuleTileMatch(Rule rule, int i) {
-    }
-
     private record FrontierItem(int index, double priority) {
     }
 }
 
-class Board {
-    public byte[] state;
-    public int parentIndex, depth, backwardEstimate, forwardEstimate;
-
-    public Board(byte[] state, int parentIndex, int depth, int backwardEstimate, int forwardEstimate) {
-        this.state = state;
-        this.parentIndex = parentIndex;
-        this.depth = depth;
-        this.backwardEstimate = backwardEstimate;
-        this.forwardEstimate = forwardEstimate;
-    }
-
-    public double rank(Random random, double depthCoefficient) {
-        double result = depthCoefficient < 0.0 ? 1000 - depth :
-                forwardEstimate + backwardEstimate + 2.0 * depthCoefficient * depth;
-        return result + 0.0001 * random.nextDouble();
-    }
-
-    public static List<Board> trajectory(int index, List<Board> database) {
-        List<Board> result = new ArrayList<>();
-        for (Board board = database.get(index); board.parentIndex >= 0; board = database.get(board.parentIndex)) {
-            result.add(board);
-        }
-        return result;
-    }
-}
-
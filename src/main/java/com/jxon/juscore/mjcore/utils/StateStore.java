@@ -0,0 +1,122 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Set of grid states visited by Search. States are stored packed, two cells per byte when there are at
+// most 16 colors, in fixed-size pages, and identified by their insertion index. Lookups go through an
+// open-addressing table of 64-bit content hashes; equal hashes are confirmed by comparing the packed bytes.
+final class StateStore {
+    private static final int PAGE_BYTES = 1 << 20;
+
+    private final int length, packedLength, perPage;
+    private final boolean nibbles;
+    private final List<byte[]> pages = new ArrayList<>();
+    private final byte[] scratch;
+    private int size;
+
+    private long[] hashes;
+    private int[] ids;
+    private int mask;
+
+    StateStore(int length, int C) {
+        this.length = length;
+        nibbles = C <= 16;
+        packedLength = nibbles ? (length + 1) / 2 : length;
+        perPage = Math.max(1, PAGE_BYTES / packedLength);
+        scratch = new byte[packedLength];
+
+        hashes = new long[1024];
+        ids = new int[1024];
+        mask = hashes.length - 1;
+    }
+
+    static long hash(byte[] state) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : state) {
+            h = (h ^ b) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Returns the index of an equal state, or -1
+    int find(byte[] state, long hash) {
+        pack(state, scratch);
+        for (int slot = (int) hash & mask; ids[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && equalsPacked(ids[slot] - 1, scratch)) return ids[slot] - 1;
+        }
+        return -1;
+    }
+
+    // Stores a state that is not present yet and returns its index
+    int add(byte[] state, long hash) {
+        int id = size++;
+        int page = id / perPage;
+        if (page == pages.size()) pages.add(new byte[perPage * packedLength]);
+        pack(state, scratch);
+        System.arraycopy(scratch, 0, pages.get(page), (id % perPage) * packedLength, packedLength);
+
+        if (2 * size > hashes.length) rehash();
+        insert(hash, id);
+        return id;
+    }
+
+    byte[] get(int id) {
+        byte[] page = pages.get(id / perPage);
+        int offset = (id % perPage) * packedLength;
+        byte[] result = new byte[length];
+        if (nibbles) {
+            for (int i = 0; i < length; i++) {
+                int b = page[offset + (i >> 1)];
+                result[i] = (byte) ((i & 1) == 0 ? b & 0xf : (b >> 4) & 0xf);
+            }
+        } else {
+            System.arraycopy(page, offset, result, 0, length);
+        }
+        return result;
+    }
+
+    private void pack(byte[] state, byte[] packed) {
+        if (nibbles) {
+            Arrays.fill(packed, (byte) 0);
+            for (int i = 0; i < length; i++) {
+                packed[i >> 1] |= (byte) ((i & 1) == 0 ? state[i] : state[i] << 4);
+            }
+        } else {
+            System.arraycopy(state, 0, packed, 0, length);
+        }
+    }
+
+    private boolean equalsPacked(int id, byte[] packed) {
+        int offset = (id % perPage) * packedLength;
+        return Arrays.equals(pages.get(id / perPage), offset, offset + packedLength, packed, 0, packedLength);
+    }
+
+    private void insert(long hash, int id) {
+        int slot = (int) hash & mask;
+        while (ids[slot] != 0) slot = (slot + 1) & mask;
+        hashes[slot] = hash;
+        ids[slot] = id + 1;
+    }
+
+    private void rehash() {
+        long[] oldHashes = hashes;
+        int[] oldIds = ids;
+        hashes = new long[oldHashes.length * 2];
+        ids = new int[oldIds.length * 2];
+        mask = hashes.length - 1;
+        for (int slot = 0; slot < oldIds.length; slot++) {
+            if (oldIds[slot] != 0) insert(oldHashes[slot], oldIds[slot] - 1);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright (C) 2022 Maxim Gumin, The MIT License (MIT)
+
+package com.jxon.juscore.mjcore.utils;
+
+// Fixed-size map from state hashes to the smallest depth at which the state was reached. Slots are grouped in
+// buckets of four; when a bucket is full, the entry from the oldest generation is evicted, and among those the
+// deepest one, since shallow entries prune more of the tree. States are identified by their 64-bit hash alone,
+// so a collision can at worst prune a state that was never seen.
+final class TranspositionTable {
+    private static final int WAYS = 4;
+
+    private final long[] keys;
+    private final int[] depths;
+    private final int[] generations;
+    private final int mask;
+    private int generation = 1;
+
+    TranspositionTable(int capacity) {
+        int buckets = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+        keys = new long[buckets * WAYS];
+        depths = new int[buckets * WAYS];
+        generations = new int[buckets * WAYS];
+        mask = buckets - 1;
+    }
+
+    // Entries of earlier generations still answer lookups but are the first to be evicted
+    void nextGeneration() {
+        generation++;
+    }
+
+    // Records that the state was reached at the given depth. Returns false if it had been reached at that depth
+    // or a smaller one in the current generation, in which case it does not need to be expanded again.
+    boolean visit(long hash, int depth) {
+        int bucket = ((int) (hash ^ (hash >>> 32)) & mask) * WAYS;
+        int victim = -1;
+        for (int slot = bucket; slot < bucket + WAYS; slot++) {
+            if (generations[slot] != 0 && keys[slot] == hash) {
+                if (generations[slot] == generation && depths[slot] <= depth) return false;
+                depths[slot] = depth;
+                generations[slot] = generation;
+                return true;
+            }
+            if (victim < 0 || worse(slot, victim)) victim = slot;
+        }
+
+        keys[victim] = hash;
+        depths[victim] = depth;
+        generations[victim] = generation;
+        return true;
+    }
+
+    private boolean worse(int a, int b) {
+        if (generations[a] != generations[b]) return generations[a] < generations[b];
+        return depths[a] > depths[b];
+    }
+}
@@ -210,7 +210,7 @@ public final class VoxHelper {
                 bos.write(0);
             }
         } catch (IOException e) {
-            System.out.println("Error saving VOX file: " + e.getMessage());
+            Log.error("couldn't save vox file", e);
         }
     }
 
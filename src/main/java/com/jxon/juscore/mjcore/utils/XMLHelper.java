@@ -2,10 +2,17 @@
 
 package com.jxon.juscore.mjcore.utils;
 
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public final class XMLHelper {
@@ -76,21 +83,82 @@ public final class XMLHelper {
         }
     }
 
-    public static int getLineNumber(Element element) {
-        // 尝试获取行号，如果不可用则返回元素的简单标识
-        String tagName = element.getTagName();
-        String id = element.getAttribute("id");
-        String name = element.getAttribute("name");
-
-        if (!name.isEmpty()) {
-            System.out.println("DEBUG: Processing element <" + tagName + " name=\"" + name + "\">");
-        } else if (!id.isEmpty()) {
-            System.out.println("DEBUG: Processing element <" + tagName + " id=\"" + id + "\">");
-        } else {
-            System.out.println("DEBUG: Processing element <" + tagName + ">");
+    private static final String LINE = "line", COLUMN = "column";
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final ThreadLocal<DocumentBuilder> BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    public static Document loadDocument(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return loadDocument(in, file.getPath());
         }
+    }
+
+    public static Document loadDocument(String xml) throws IOException {
+        return loadDocument(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    // Builds the DOM tree in a single pass over a StAX reader. Every element carries the line and column where
+    // its start tag ends, which getLineNumber and getColumnNumber return.
+    public static Document loadDocument(InputStream in, String systemId) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(systemId, in);
+            Document document = BUILDER.get().newDocument();
+            if (systemId != null) document.setDocumentURI(systemId);
+            Node parent = document;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    Element element = document.createElement(reader.getLocalName());
+                    for (int k = 0; k < reader.getAttributeCount(); k++) {
+                        element.setAttribute(reader.getAttributeLocalName(k), reader.getAttributeValue(k));
+                    }
+                    Location location = reader.getLocation();
+                    element.setUserData(LINE, location.getLineNumber(), null);
+                    element.setUserData(COLUMN, location.getColumnNumber(), null);
+                    parent.appendChild(element);
+                    parent = element;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    parent = parent.getParentNode();
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+                           event == XMLStreamConstants.SPACE) {
+                    if (parent != document) parent.appendChild(document.createTextNode(reader.getText()));
+                }
+            }
+            return document;
+        } catch (XMLStreamException e) {
+            Location location = e.getLocation();
+            String where = location == null ? "" : " at line " + location.getLineNumber() + ", column " + location.getColumnNumber();
+            throw new IOException("malformed XML" + (systemId == null ? "" : " in " + systemId) + where + ": " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+    }
+
+    // -1 for elements that were not read by loadDocument
+    public static int getLineNumber(Element element) {
+        return element.getUserData(LINE) instanceof Integer line ? line : -1;
+    }
 
-        return -1; // Java DOM doesn't provide line numbers by default
+    public static int getColumnNumber(Element element) {
+        return element.getUserData(COLUMN) instanceof Integer column ? column : -1;
     }
 
     public static List<Element> elements(Element element, String... names) {